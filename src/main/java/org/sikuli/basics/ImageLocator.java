@@ -18,6 +18,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import javax.imageio.ImageIO;
+import org.sikuli.basics.proxies.TargetCache;
 
 public class ImageLocator {
 
@@ -392,4 +393,17 @@ public class ImageLocator {
 			return null;
 		}
 	}
+
+	/**
+	 * like getImage(), but the image is only read and prepared for matching once,
+	 * as long as the file is not changed (see TargetCache)
+	 */
+	public static TargetCache.Entry getTarget(String filename) {
+		try {
+			return TargetCache.get(new File(locate(filename)));
+		} catch (IOException iOException) {
+			Debug.log(2, "ImageLocator.getTarget: " + filename + " does not exist or cannot be found on ImagePath");
+			return null;
+		}
+	}
 }
@@ -121,6 +121,66 @@ public class Settings {
   public static int ObserveMinChangedPixels = 50; // in pixels
   public static int WaitForVanish = 1; // wait 1 second for visual to vanish after action
   public static double MinSimilarity = 0.7;
+  /**
+   * Java matcher: find all splits the source into tiles of this size (in pixels, overlapping by
+   * the target size), that are searched in parallel
+   */
+  public static int FindAllTileSize = 256;
+  /**
+   * Java matcher, pyramid search (FindInput.setPyramidLevels()): candidates on the coarse levels
+   * need a score of at least similarity - PyramidTolerance, if none of them is confirmed at full
+   * resolution, the next finer level is searched (finally the exhaustive search)
+   */
+  public static double PyramidTolerance = 0.15;
+  /**
+   * Java matcher, pyramid search: max number of coarse candidates verified for a single find
+   */
+  public static int PyramidCandidates = 5;
+  /**
+   * Java matcher: targets with at least this many pixels are correlated in the frequency domain
+   * (FFT), which is faster for large targets (0: never)
+   */
+  public static int FFTMinTargetArea = 128 * 128;
+  /**
+   * Java matcher: with at least this similarity the target is first searched pixel exact (rolling
+   * hashes, ExactMatcher), the correlation only runs if there is no exact match (above 1: never)
+   */
+  public static double ExactMatchSimilarity = 0.99;
+  /**
+   * Java matcher: positions are checked with a few anchor pixels of the target before the full
+   * correlation, those that cannot reach the similarity are skipped (Prescreen)
+   */
+  public static boolean Prescreen = true;
+  /**
+   * Java matcher, multi-scale search (FindInput.setMultiScale()): the scales of the target tried
+   * (display scaling of the screen relative to the one the pattern was captured on)
+   */
+  public static double[] FindScales = {1.0, 1.25, 1.5, 2.0, 0.8, 0.67};
+  /**
+   * Java matcher, multi-scale search: the scale found per host and pattern is kept in this
+   * properties file, so it is tried first after a restart too (null: kept in memory only)
+   */
+  public static String ScaleCacheFile = null;
+  /**
+   * AsyncVision: number of searches running at the same time (native searches run one at a time)
+   */
+  public static int AsyncFindThreads = 2;
+  /**
+   * AsyncVision: max number of searches submitted and not yet done, more are rejected
+   */
+  public static int AsyncFindQueueSize = 64;
+  /**
+   * max memory in MB used by the cache of targets prepared for matching (TargetCache)
+   */
+  public static int TargetCacheSize = 64;
+  /**
+   * MatArena: max number of idle frames kept per size
+   */
+  public static int MatArenaFrames = 4;
+  /**
+   * MatArena: max memory in MB of all idle frames
+   */
+  public static int MatArenaSize = 128;
 
   public static double DelayBeforeDrop = 0.3;
   public static double DelayAfterDrag = 0.3;
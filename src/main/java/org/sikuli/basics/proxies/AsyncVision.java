@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sikuli.basics.Debug;
+import org.sikuli.basics.Settings;
+
+/**
+ * Vision.find() in the background: submit() returns a Future of the FindResults, a Listener
+ * given to submit() is told when the search is done<br />
+ * the searches run on Settings.AsyncFindThreads threads, higher priority first (equal ones in
+ * the order submitted), at most Settings.AsyncFindQueueSize searches may be pending<br />
+ * with the Java matcher selected (Matchers.select("java")) the searches run in parallel and
+ * cancel() stops a running search at the next row or tile (see Deadline), all other searches
+ * (native matcher, text targets) run one at a time (as all native searches, see NativeMatcher)
+ * and cannot be stopped once started, as do those of a matcher that is no ThreadSafeMatcher
+ * (see Matchers)<br />
+ * the FindInput must not be changed or deleted until its search is done
+ */
+public class AsyncVision {
+
+  private static final AtomicLong submitted = new AtomicLong();
+  private static final AtomicInteger pending = new AtomicInteger();
+  private static ThreadPoolExecutor pool = null;
+
+  /**
+   * told when a submitted search is done, on the thread that ran it (or that cancelled it
+   * before it started), so it should return soon
+   */
+  public interface Listener {
+
+    /**
+     * the search ended with these results (isPartial(), if stopped by the deadline of q)
+     */
+    public void found(FindInput q, FindResults results);
+
+    /**
+     * the search failed with this error (CancellationException if it was cancelled)
+     */
+    public void failed(FindInput q, Throwable error);
+  }
+
+  /**
+   * a submitted search, ordered by priority and submission
+   */
+  private static class Search extends FutureTask<FindResults> implements Comparable<Search> {
+
+    final FindInput q;
+    final int priority;
+    final long seq;
+    final Deadline deadline;
+    final Listener listener;
+
+    Search(Callable<FindResults> call, FindInput q, int priority, Deadline deadline,
+            Listener listener) {
+      super(call);
+      this.q = q;
+      this.priority = priority;
+      this.deadline = deadline;
+      this.listener = listener;
+      seq = submitted.incrementAndGet();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      deadline.cancel();
+      return super.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    protected void done() {
+      pending.decrementAndGet();
+      if (listener == null) {
+        return;
+      }
+      FindResults results = null;
+      Throwable error = null;
+      try {
+        results = get();
+      } catch (ExecutionException e) {
+        error = e.getCause();
+      } catch (CancellationException e) {
+        error = e;
+      } catch (InterruptedException e) {
+        error = e;
+      }
+      try {
+        if (error == null) {
+          listener.found(q, results);
+        } else {
+          listener.failed(q, error);
+        }
+      } catch (RuntimeException e) {
+        Debug.error("AsyncVision: listener: %s", e);
+      }
+    }
+
+    @Override
+    public int compareTo(Search o) {
+      if (priority != o.priority) {
+        return priority > o.priority ? -1 : 1;
+      }
+      return seq < o.seq ? -1 : (seq > o.seq ? 1 : 0);
+    }
+  }
+
+  public static Future<FindResults> submit(FindInput q) {
+    return submit(q, 0, null);
+  }
+
+  public static Future<FindResults> submit(FindInput q, int priority) {
+    return submit(q, priority, null);
+  }
+
+  /**
+   * @param priority searches with a higher priority are started first
+   * @param listener told when the search is done, may be null
+   * @return the FindResults to come (FindResults.isPartial(), if stopped by the deadline of q)
+   * @throws RejectedExecutionException if Settings.AsyncFindQueueSize searches are pending
+   */
+  public static Future<FindResults> submit(final FindInput q, int priority, Listener listener) {
+    final Deadline deadline = new Deadline(q.getOptions().getDeadline().getNanoTime());
+    Search search = new Search(new Callable<FindResults>() {
+      @Override
+      public FindResults call() {
+        return find(q, deadline);
+      }
+    }, q, priority, deadline, listener);
+    if (pending.incrementAndGet() > Math.max(1, Settings.AsyncFindQueueSize)) {
+      pending.decrementAndGet();
+      throw new RejectedExecutionException(String.format(
+              "AsyncVision: %d searches pending", Settings.AsyncFindQueueSize));
+    }
+    try {
+      getPool().execute(search);
+    } catch (RejectedExecutionException e) {
+      // shut down meanwhile
+      pending.decrementAndGet();
+      throw e;
+    }
+    return search;
+  }
+
+  private static FindResults find(FindInput q, Deadline deadline) {
+    IMatcher matcher = Matchers.get();
+    if (matcher instanceof JavaMatcher && JavaMatcher.hasPixels(q)) {
+      FindOptions options = JavaMatcher.optionsOf(q).setDeadline(deadline);
+      return JavaMatcher.find(q.getSourcePixels(), q.getTargetPixels(), options).toFindResults();
+    }
+    return matcher.find(q);
+  }
+
+  /**
+   * @return number of searches submitted and not yet done
+   */
+  public static int getPending() {
+    return pending.get();
+  }
+
+  private static synchronized ThreadPoolExecutor getPool() {
+    if (pool == null) {
+      final AtomicInteger count = new AtomicInteger();
+      int n = Math.max(1, Settings.AsyncFindThreads);
+      pool = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+              new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "SikuliFind-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * cancels the pending searches and ends the threads, the next submit() starts new ones (e.g.
+   * after Settings.AsyncFindThreads was changed)
+   */
+  public static synchronized void shutdown() {
+    if (pool != null) {
+      for (Runnable r : pool.getQueue().toArray(new Runnable[0])) {
+        ((Search) r).cancel(false);
+      }
+      pool.shutdown();
+      pool = null;
+    }
+  }
+}
@@ -8,33 +8,49 @@
 
 package org.sikuli.basics.proxies;
 
-public class Blob {
+import java.io.Closeable;
+
+public class Blob implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_Blob(cPtr);
+    }
+  };
 
   protected Blob(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(Blob obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_Blob(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
   }
 
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
+  }
+
   public Blob() {
     this(VisionProxyJNI.new_Blob__SWIG_0(), true);
   }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * optional prefilter by colors (FindOptions.setColorFilter()): skips the parts of the source,
+ * that do not hold enough pixels of the target's main colors<br />
+ * the colors are reduced to 8 levels per channel, the histograms of the source tiles (TILE x
+ * TILE pixels) are computed once per frame in parallel and shared by all targets and regions
+ * searched on it<br />
+ * a target's key colors are those covering at least MIN_SHARE of its pixels, a block of
+ * positions is skipped, if the tiles its windows can touch have less than KEEP of the target's
+ * count of a key color (neighbouring levels included)<br />
+ * a match with changed colors (e.g. other brightness) may be missed, so this is not on by
+ * default
+ */
+public class ColorFilter {
+
+  static final int TILE = 64;
+  private static final int SHIFT = 5;
+  private static final int LEVELS = 256 >> SHIFT;
+  private static final int BINS = LEVELS * LEVELS * LEVELS;
+  private static final double MIN_SHARE = 0.1;
+  private static final double KEEP = 0.5;
+  private static final int MAX_KEYS = 3;
+  private static final String TILES = "colorTiles";
+  private static final String KEYS = "colorKeys";
+
+  /**
+   * the positions (in frame coordinates) that may hold a match, in blocks of TILE x TILE
+   */
+  static class Mask {
+
+    private final boolean[] allowed;
+    private final int cols;
+    private int count = 0;
+
+    private Mask(int cols, int rows) {
+      this.cols = cols;
+      allowed = new boolean[cols * rows];
+    }
+
+    boolean allows(int x, int y) {
+      return allowed[(y / TILE) * cols + x / TILE];
+    }
+  }
+
+  /**
+   * the color histograms of the tiles of a frame
+   */
+  private static class Tiles {
+
+    final int cols, rows;
+    // counts[tile * BINS + bin], at most TILE * TILE per tile
+    final char[] counts;
+    // per key bin: summed area table over the tiles of the counts of the bin and its neighbours
+    final Map<Integer, int[]> near = new HashMap<Integer, int[]>();
+
+    Tiles(final MatchSource frame) {
+      final PixelMat pixels = frame.getPixels();
+      final int nc = frame.getColorChannels();
+      cols = (pixels.getWidth() + TILE - 1) / TILE;
+      rows = (pixels.getHeight() + TILE - 1) / TILE;
+      counts = new char[cols * rows * BINS];
+      List<Runnable> tasks = new ArrayList<Runnable>(rows);
+      for (int r = 0; r < rows; r++) {
+        final int ty = r;
+        tasks.add(new Runnable() {
+          @Override
+          public void run() {
+            byte[] data = pixels.getData();
+            int ch = pixels.getChannels();
+            int y1 = Math.min(pixels.getHeight(), (ty + 1) * TILE);
+            for (int y = ty * TILE; y < y1; y++) {
+              int si = pixels.index(0, y);
+              for (int x = 0; x < pixels.getWidth(); x++, si += ch) {
+                counts[(ty * cols + x / TILE) * BINS + bin(data, si, nc)]++;
+              }
+            }
+          }
+        });
+      }
+      MatchPool.invokeAll(tasks);
+    }
+
+    /**
+     * @return summed area table (cols + 1) x (rows + 1) of the pixels in bin or a neighbour
+     */
+    synchronized int[] near(int bin) {
+      int[] sat = near.get(bin);
+      if (sat != null) {
+        return sat;
+      }
+      int[] bins = neighbours(bin);
+      int sw = cols + 1;
+      sat = new int[sw * (rows + 1)];
+      for (int r = 0; r < rows; r++) {
+        int rowSum = 0;
+        for (int c = 0; c < cols; c++) {
+          int base = (r * cols + c) * BINS;
+          for (int b : bins) {
+            rowSum += counts[base + b];
+          }
+          sat[(r + 1) * sw + c + 1] = sat[r * sw + c + 1] + rowSum;
+        }
+      }
+      near.put(bin, sat);
+      return sat;
+    }
+  }
+
+  /**
+   * the key colors of a target and the counts needed in a window
+   */
+  private static class Keys {
+
+    final int[] bins;
+    final int[] need;
+
+    Keys(int[] bins, int[] need) {
+      this.bins = bins;
+      this.need = need;
+    }
+  }
+
+  private static int bin(byte[] data, int i, int nc) {
+    int b = 0;
+    for (int c = 0; c < 3; c++) {
+      b = b * LEVELS + ((data[i + Math.min(c, nc - 1)] & 0xff) >> SHIFT);
+    }
+    return b;
+  }
+
+  private static int[] neighbours(int bin) {
+    int r = bin / (LEVELS * LEVELS), g = bin / LEVELS % LEVELS, b = bin % LEVELS;
+    List<Integer> list = new ArrayList<Integer>(27);
+    for (int i = Math.max(0, r - 1); i <= Math.min(LEVELS - 1, r + 1); i++) {
+      for (int j = Math.max(0, g - 1); j <= Math.min(LEVELS - 1, g + 1); j++) {
+        for (int k = Math.max(0, b - 1); k <= Math.min(LEVELS - 1, b + 1); k++) {
+          list.add((i * LEVELS + j) * LEVELS + k);
+        }
+      }
+    }
+    int[] bins = new int[list.size()];
+    for (int i = 0; i < bins.length; i++) {
+      bins[i] = list.get(i);
+    }
+    return bins;
+  }
+
+  private static Tiles tilesOf(MatchSource frame) {
+    synchronized (frame) {
+      Tiles tiles = (Tiles) frame.getAttached(TILES);
+      if (tiles == null) {
+        tiles = new Tiles(frame);
+        frame.setAttached(TILES, tiles);
+      }
+      return tiles;
+    }
+  }
+
+  private static Keys keysOf(MatchTarget target) {
+    synchronized (target) {
+      Keys keys = (Keys) target.getAttached(KEYS);
+      if (keys == null) {
+        PixelMat pixels = target.getPixels();
+        int nc = target.getColorChannels(), ch = pixels.getChannels();
+        byte[] data = pixels.getData();
+        int[] hist = new int[BINS];
+        int[] points = target.getPoints();
+        if (points == null) {
+          for (int y = 0; y < pixels.getHeight(); y++) {
+            int si = pixels.index(0, y);
+            for (int x = 0; x < pixels.getWidth(); x++, si += ch) {
+              hist[bin(data, si, nc)]++;
+            }
+          }
+        } else {
+          // the opaque pixels of a masked target
+          int w = pixels.getWidth();
+          for (int p : points) {
+            hist[bin(data, pixels.index(p % w, p / w), nc)]++;
+          }
+        }
+        int min = (int) Math.ceil(MIN_SHARE * target.getPixelCount());
+        List<Integer> found = new ArrayList<Integer>();
+        while (found.size() < MAX_KEYS) {
+          int best = -1;
+          for (int b = 0; b < BINS; b++) {
+            if (hist[b] >= min && !found.contains(b) && (best < 0 || hist[b] > hist[best])) {
+              best = b;
+            }
+          }
+          if (best < 0) {
+            break;
+          }
+          found.add(best);
+        }
+        int[] bins = new int[found.size()];
+        int[] need = new int[found.size()];
+        for (int i = 0; i < bins.length; i++) {
+          bins[i] = found.get(i);
+          need[i] = (int) Math.ceil(KEEP * hist[bins[i]]);
+        }
+        keys = new Keys(bins, need);
+        target.setAttached(KEYS, keys);
+      }
+      return keys;
+    }
+  }
+
+  /**
+   * @return the source with the positions that may hold the target (the source itself if the
+   * target has no key colors), null if there are none
+   */
+  public static MatchSource filter(MatchSource source, MatchTarget target) {
+    Keys keys = keysOf(target);
+    if (keys.bins.length == 0) {
+      return source;
+    }
+    MatchSource frame = source.getFrame();
+    Tiles tiles = tilesOf(frame);
+    int w = target.getWidth(), h = target.getHeight();
+    int x0 = source.getFrameX(), y0 = source.getFrameY();
+    int x1 = x0 + source.getWidth() - w + 1, y1 = y0 + source.getHeight() - h + 1;
+    if (x1 <= x0 || y1 <= y0) {
+      return null;
+    }
+    int[][] sats = new int[keys.bins.length][];
+    for (int k = 0; k < sats.length; k++) {
+      sats[k] = tiles.near(keys.bins[k]);
+    }
+    int sw = tiles.cols + 1;
+    Mask mask = new Mask(tiles.cols, tiles.rows);
+    for (int by = y0 / TILE; by <= (y1 - 1) / TILE; by++) {
+      // the tiles touched by the windows at the positions of this block
+      int ty1 = Math.min(tiles.rows, (by * TILE + TILE - 1 + h - 1) / TILE + 1);
+      for (int bx = x0 / TILE; bx <= (x1 - 1) / TILE; bx++) {
+        int tx1 = Math.min(tiles.cols, (bx * TILE + TILE - 1 + w - 1) / TILE + 1);
+        boolean ok = true;
+        for (int k = 0; k < sats.length && ok; k++) {
+          int[] s = sats[k];
+          int n = s[ty1 * sw + tx1] - s[by * sw + tx1] - s[ty1 * sw + bx] + s[by * sw + bx];
+          ok = n >= keys.need[k];
+        }
+        if (ok) {
+          mask.allowed[by * tiles.cols + bx] = true;
+          mask.count++;
+        }
+      }
+    }
+    return mask.count == 0 ? null : source.masked(mask);
+  }
+}
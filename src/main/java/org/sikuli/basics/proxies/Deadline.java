@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+/**
+ * the time a search has to end by (FindOptions.setDeadline()), as a System.nanoTime() value<br />
+ * the Java matchers check it for each row or tile scanned and stop, when it has passed, with
+ * the best found so far, the parts of one search share the Deadline, so hasPassed() tells
+ * afterwards whether the search was cut short, cancel() stops it at once (AsyncVision)<br />
+ * the native matcher cannot be stopped and ignores it
+ */
+public class Deadline {
+
+  /**
+   * no deadline
+   */
+  public static final Deadline NONE = new Deadline(0);
+
+  private final long nanoTime;
+  private volatile boolean passed = false;
+  private volatile boolean cancelled = false;
+
+  /**
+   * @param nanoTime as System.nanoTime() (0: none)
+   */
+  public Deadline(long nanoTime) {
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * @param nanos from now (as System.nanoTime())
+   */
+  public static Deadline in(long nanos) {
+    return new Deadline(System.nanoTime() + nanos);
+  }
+
+  /**
+   * @return the System.nanoTime() value, 0: none
+   */
+  public long getNanoTime() {
+    return nanoTime;
+  }
+
+  /**
+   * @return true if the time has come (the search should stop now), remembered for hasPassed()
+   */
+  public boolean check() {
+    if (passed) {
+      return true;
+    }
+    if (nanoTime == 0 || System.nanoTime() - nanoTime < 0) {
+      return false;
+    }
+    passed = true;
+    return true;
+  }
+
+  /**
+   * the next check() stops the search (not to be used on NONE)
+   */
+  public void cancel() {
+    cancelled = true;
+    passed = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return true if check() found the time come: a search using this stopped before its end
+   */
+  public boolean hasPassed() {
+    return passed;
+  }
+}
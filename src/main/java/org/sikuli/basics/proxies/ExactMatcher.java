@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * pixel exact search with 2D rolling hashes (Rabin-Karp): the hashes of all target sized windows
+ * of the source are computed in one pass (each row hashed once, the row hashes rolled down the
+ * columns) and compared with the hash of the target, equal hashes are verified pixel by pixel<br />
+ * the color channels are compared (alpha is ignored as with the correlation), an exact match
+ * has the score 1<br />
+ * used by JavaMatcher for similarities of at least Settings.ExactMatchSimilarity
+ */
+public class ExactMatcher {
+
+  private static final long ROW_BASE = 0x100000001b3L;
+  private static final long COL_BASE = 0x9e3779b97f4a7c15L;
+  private static final String HASH = "exactHash";
+
+  /**
+   * @param all false: stop with the first exact match
+   * @param limit with all: max number of matches (0 or less: no limit)
+   * @return the exact matches (score 1), not overlapping
+   */
+  public static MatchBuffer find(final MatchSource source, final MatchTarget target,
+          final boolean all, int limit) {
+    return find(source, target, all, limit, Deadline.NONE);
+  }
+
+  /**
+   * @param deadline checked for each row, when passed the matches found so far are returned
+   */
+  public static MatchBuffer find(final MatchSource source, final MatchTarget target,
+          final boolean all, int limit, final Deadline deadline) {
+    MatchBuffer found = new MatchBuffer();
+    final int w = target.getWidth(), h = target.getHeight();
+    final int rw = source.getWidth() - w + 1, rh = source.getHeight() - h + 1;
+    if (rw <= 0 || rh <= 0 || target.getColorChannels() != source.getColorChannels()) {
+      return found;
+    }
+    final long hash = targetHash(target);
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    // a band hashes h rows before its first position, so bands are not smaller than h
+    int n = MatchPool.chunks(rh, Math.max(h, 16));
+    List<Runnable> bands = new ArrayList<Runnable>(n);
+    final List<MatchBuffer> hits = new ArrayList<MatchBuffer>(n);
+    for (int i = 0; i < n; i++) {
+      final int y0 = rh * i / n, y1 = rh * (i + 1) / n;
+      final MatchBuffer band = new MatchBuffer();
+      hits.add(band);
+      bands.add(new Runnable() {
+        @Override
+        public void run() {
+          scan(source, target, hash, y0, y1, all ? null : stop, deadline, band);
+        }
+      });
+    }
+    MatchPool.invokeAll(bands);
+    for (MatchBuffer band : hits) {
+      found.addAll(band);
+    }
+    found.suppressOverlaps(all ? limit : 1);
+    return found;
+  }
+
+  /**
+   * adds the exact matches at the positions of rows y0 to y1 - 1 to found
+   *
+   * @param stop not null: set with the first match and checked for each row
+   * @param deadline checked for each row
+   */
+  private static void scan(MatchSource source, MatchTarget target, long hash, int y0, int y1,
+          AtomicBoolean stop, Deadline deadline, MatchBuffer found) {
+    PixelMat sp = source.getPixels();
+    int w = target.getWidth(), h = target.getHeight(), nc = target.getColorChannels();
+    int rw = source.getWidth() - w + 1;
+    long rowPow = power(ROW_BASE, w - 1), colPow = power(COL_BASE, h - 1);
+    // the row hashes of the h rows under the current positions, row y in ring[(y - y0) % h]
+    long[][] ring = new long[h][rw];
+    long[] cols = new long[rw];
+    for (int r = 0; r < h; r++) {
+      rowHashes(sp, nc, y0 + r, w, rowPow, ring[r]);
+      long[] row = ring[r];
+      for (int x = 0; x < rw; x++) {
+        cols[x] = cols[x] * COL_BASE + row[x];
+      }
+    }
+    for (int y = y0; y < y1; y++) {
+      if ((stop != null && stop.get()) || deadline.check()) {
+        return;
+      }
+      if (y > y0) {
+        // row y - 1 leaves the windows, row y + h - 1 enters them
+        long[] row = ring[(y - 1 - y0) % h];
+        for (int x = 0; x < rw; x++) {
+          cols[x] -= row[x] * colPow;
+        }
+        rowHashes(sp, nc, y + h - 1, w, rowPow, row);
+        for (int x = 0; x < rw; x++) {
+          cols[x] = cols[x] * COL_BASE + row[x];
+        }
+      }
+      for (int x = 0; x < rw; x++) {
+        if (cols[x] == hash && same(sp, target.getPixels(), nc, x, y)) {
+          found.add(x, y, w, h, 1);
+          if (stop != null) {
+            stop.set(true);
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * hashes of the windows of width w in row y, for x = 0 ... out.length - 1
+   */
+  private static void rowHashes(PixelMat p, int nc, int y, int w, long pow, long[] out) {
+    byte[] data = p.getData();
+    int ch = p.getChannels();
+    int i = p.index(0, y);
+    long hsh = 0;
+    for (int x = 0; x < w; x++, i += ch) {
+      hsh = hsh * ROW_BASE + pixel(data, i, nc);
+    }
+    out[0] = hsh;
+    int old = p.index(0, y);
+    for (int x = 1; x < out.length; x++, i += ch, old += ch) {
+      hsh = (hsh - pixel(data, old, nc) * pow) * ROW_BASE + pixel(data, i, nc);
+      out[x] = hsh;
+    }
+  }
+
+  private static long pixel(byte[] data, int i, int nc) {
+    long v = data[i] & 0xff;
+    for (int c = 1; c < nc; c++) {
+      v = (v << 8) | (data[i + c] & 0xff);
+    }
+    // never 0, so leading black pixels count
+    return v + 1;
+  }
+
+  private static long power(long base, int n) {
+    long p = 1;
+    for (int i = 0; i < n; i++) {
+      p *= base;
+    }
+    return p;
+  }
+
+  private static long targetHash(MatchTarget target) {
+    synchronized (target) {
+      Long hash = (Long) target.getAttached(HASH);
+      if (hash == null) {
+        PixelMat p = target.getPixels();
+        int w = target.getWidth();
+        long[] row = new long[1];
+        long h = 0;
+        for (int y = 0; y < target.getHeight(); y++) {
+          rowHashes(p, target.getColorChannels(), y, w, power(ROW_BASE, w - 1), row);
+          h = h * COL_BASE + row[0];
+        }
+        hash = h;
+        target.setAttached(HASH, hash);
+      }
+      return hash;
+    }
+  }
+
+  private static boolean same(PixelMat source, PixelMat target, int nc, int x, int y) {
+    byte[] sd = source.getData(), td = target.getData();
+    int sch = source.getChannels(), tch = target.getChannels();
+    for (int r = 0; r < target.getHeight(); r++) {
+      int si = source.index(x, y + r), ti = target.index(0, r);
+      for (int c = 0; c < target.getWidth(); c++, si += sch, ti += tch) {
+        for (int k = 0; k < nc; k++) {
+          if (sd[si + k] != td[ti + k]) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+}
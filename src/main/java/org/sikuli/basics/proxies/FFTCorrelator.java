@@ -0,0 +1,282 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * correlation of large targets in the frequency domain (used by JavaMatcher for targets of at
+ * least Settings.FFTMinTargetArea pixels)<br />
+ * the source is cut into overlapping blocks of a padded power of 2 size (overlap-save: the blocks
+ * start every block size - target size + 1 pixels, so each position is correlated in exactly one
+ * block), the spectra of the blocks are made for each search and dropped with the block, only the
+ * spectra of the target are kept (with the MatchTarget)<br />
+ * the correlation gives the numerator of the normalized score, the denominator comes from the
+ * integral images as with the spatial search, the candidates of all blocks are merged and
+ * de-duplicated at once (by the approximate scores), the reported matches are scored again
+ * exactly
+ */
+public class FFTCorrelator {
+
+  private static final int MIN_BLOCK = 256;
+  private static final int MIN_FFT_ROWS = 16;
+  // candidates are taken with this margin, the FFT in float is not exact
+  private static final double MARGIN = 0.01;
+
+  /**
+   * @param limit with all: max number of matches (0 or less: no limit)
+   * @return as JavaMatcher.find(MatchSource, MatchTarget, similarity, all, limit)
+   */
+  public static MatchBuffer find(final MatchSource source, final MatchTarget target,
+          final double similarity, boolean all, int limit) {
+    return find(source, target, similarity, all, limit, Deadline.NONE);
+  }
+
+  /**
+   * @param deadline checked before each block is correlated and for each row of its positions,
+   * when passed the best found so far are returned
+   */
+  public static MatchBuffer find(final MatchSource source, final MatchTarget target,
+          final double similarity, boolean all, int limit, final Deadline deadline) {
+    MatchBuffer found = new MatchBuffer();
+    final int w = target.getWidth(), h = target.getHeight();
+    final int rw = source.getWidth() - w + 1, rh = source.getHeight() - h + 1;
+    if (rw <= 0 || rh <= 0 || target.getColorChannels() != source.getColorChannels()) {
+      return found;
+    }
+    final int bw = blockSize(source.getWidth(), w), bh = blockSize(source.getHeight(), h);
+    // the positions x0 ... x0 + stepX - 1 of a block do not wrap around
+    final int stepX = bw - w + 1, stepY = bh - h + 1;
+    final float[][] targetSpectrum = targetSpectrum(target, bw, bh);
+    List<Runnable> blocks = new ArrayList<Runnable>();
+    final List<MatchBuffer> candidates = new ArrayList<MatchBuffer>();
+    for (int by = 0; by < rh; by += stepY) {
+      for (int bx = 0; bx < rw; bx += stepX) {
+        final int x0 = bx, y0 = by;
+        final MatchBuffer c = new MatchBuffer();
+        candidates.add(c);
+        blocks.add(new Runnable() {
+          @Override
+          public void run() {
+            if (deadline.check()) {
+              return;
+            }
+            float[] corr = correlate(transform(source, x0, y0, bw, bh), targetSpectrum, bw, bh);
+            double norm2 = target.getNorm2();
+            for (int y = 0; y < stepY && y0 + y < rh && !deadline.check(); y++) {
+              for (int x = 0; x < stepX && x0 + x < rw; x++) {
+                double var = source.variance(x0 + x, y0 + y, w, h);
+                if (var < 1e-6) {
+                  continue;
+                }
+                double s = corr[y * bw + x] / Math.sqrt(var * norm2);
+                if (s >= similarity - MARGIN) {
+                  c.add(x0 + x, y0 + y, w, h, s);
+                }
+              }
+            }
+          }
+        });
+      }
+    }
+    MatchPool.invokeAll(blocks);
+    for (MatchBuffer c : candidates) {
+      found.addAll(c);
+    }
+    // once for all blocks (as the tiles of find all)
+    found.suppressOverlaps(0);
+    MatchBuffer exact = new MatchBuffer(found.size());
+    for (int i = 0; i < found.size(); i++) {
+      double s = JavaMatcher.score(source, target, found.getX(i), found.getY(i));
+      if (s >= similarity) {
+        exact.add(found.getX(i), found.getY(i), w, h, s);
+      }
+    }
+    exact.suppressOverlaps(all ? limit : 1);
+    return exact;
+  }
+
+  static int nextPow2(int n) {
+    int p = 1;
+    while (p < n) {
+      p <<= 1;
+    }
+    return p;
+  }
+
+  /**
+   * @return padded block size: 4 times the target size (at least MIN_BLOCK, at least 3 / 4 of
+   * a block are positions), but not more than the padded source size
+   */
+  static int blockSize(int sourceSize, int targetSize) {
+    return Math.min(nextPow2(sourceSize), Math.max(MIN_BLOCK, nextPow2(4 * targetSize)));
+  }
+
+  /**
+   * @return re/im per color channel of the block bw x bh with origin (x0, y0), padded with 0
+   */
+  private static float[][] transform(MatchSource source, int x0, int y0, int bw, int bh) {
+    PixelMat pixels = source.getPixels();
+    byte[] data = pixels.getData();
+    int nc = source.getColorChannels(), ch = pixels.getChannels();
+    int w = Math.min(bw, pixels.getWidth() - x0), h = Math.min(bh, pixels.getHeight() - y0);
+    float[][] spec = new float[2 * nc][];
+    for (int c = 0; c < nc; c++) {
+      float[] re = new float[bw * bh];
+      for (int y = 0; y < h; y++) {
+        int si = pixels.index(x0, y0 + y) + c;
+        for (int x = 0; x < w; x++, si += ch) {
+          // centered, the constant part does not change the correlation with a zero mean target
+          re[y * bw + x] = (data[si] & 0xff) - 128;
+        }
+      }
+      float[] im = new float[bw * bh];
+      fft2d(re, im, bw, bh, false);
+      spec[2 * c] = re;
+      spec[2 * c + 1] = im;
+    }
+    return spec;
+  }
+
+  private static float[][] targetSpectrum(MatchTarget target, int bw, int bh) {
+    String key = "fft" + bw + "x" + bh;
+    synchronized (target) {
+      float[][] spec = (float[][]) target.getAttached(key);
+      if (spec != null) {
+        return spec;
+      }
+      int w = target.getWidth(), h = target.getHeight(), nc = target.getColorChannels();
+      float[] tz = target.getZeroMean();
+      spec = new float[2 * nc][];
+      for (int c = 0; c < nc; c++) {
+        float[] re = new float[bw * bh];
+        for (int y = 0; y < h; y++) {
+          for (int x = 0; x < w; x++) {
+            re[y * bw + x] = tz[(y * w + x) * nc + c];
+          }
+        }
+        float[] im = new float[bw * bh];
+        fft2d(re, im, bw, bh, false);
+        spec[2 * c] = re;
+        spec[2 * c + 1] = im;
+      }
+      target.setAttached(key, spec);
+      return spec;
+    }
+  }
+
+  /**
+   * @return correlation of source block and target for all offsets, row length bw
+   */
+  private static float[] correlate(float[][] source, float[][] target, int bw, int bh) {
+    int n = bw * bh;
+    float[] re = new float[n];
+    float[] im = new float[n];
+    for (int c = 0; c < source.length; c += 2) {
+      float[] sr = source[c], si = source[c + 1], tr = target[c], ti = target[c + 1];
+      // source times conjugated target
+      for (int i = 0; i < n; i++) {
+        re[i] += sr[i] * tr[i] + si[i] * ti[i];
+        im[i] += si[i] * tr[i] - sr[i] * ti[i];
+      }
+    }
+    fft2d(re, im, bw, bh, true);
+    float scale = 1f / n;
+    for (int i = 0; i < n; i++) {
+      re[i] *= scale;
+    }
+    return re;
+  }
+
+  /**
+   * in place 2D FFT (inverse without scaling) of a bw x bh array, rows and columns in parallel
+   */
+  static void fft2d(final float[] re, final float[] im, final int bw, final int bh,
+          final boolean inverse) {
+    final float[][] rowTwiddles = twiddles(bw);
+    final float[][] colTwiddles = twiddles(bh);
+    int chunks = MatchPool.chunks(bh, MIN_FFT_ROWS);
+    List<Runnable> tasks = new ArrayList<Runnable>(chunks);
+    for (int i = 0; i < chunks; i++) {
+      final int r0 = bh * i / chunks, r1 = bh * (i + 1) / chunks;
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          for (int r = r0; r < r1; r++) {
+            fft(re, im, r * bw, 1, bw, rowTwiddles, inverse);
+          }
+        }
+      });
+    }
+    MatchPool.invokeAll(tasks);
+    chunks = MatchPool.chunks(bw, MIN_FFT_ROWS);
+    tasks.clear();
+    for (int i = 0; i < chunks; i++) {
+      final int c0 = bw * i / chunks, c1 = bw * (i + 1) / chunks;
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          for (int c = c0; c < c1; c++) {
+            fft(re, im, c, bw, bh, colTwiddles, inverse);
+          }
+        }
+      });
+    }
+    MatchPool.invokeAll(tasks);
+  }
+
+  /**
+   * @return cos and sin of 2 pi k / n for k &lt; n / 2
+   */
+  private static float[][] twiddles(int n) {
+    float[][] t = new float[2][Math.max(1, n / 2)];
+    for (int k = 0; k < n / 2; k++) {
+      double a = 2 * Math.PI * k / n;
+      t[0][k] = (float) Math.cos(a);
+      t[1][k] = (float) Math.sin(a);
+    }
+    return t;
+  }
+
+  /**
+   * in place radix 2 FFT of the n elements off, off + step, ... (n a power of 2)
+   */
+  private static void fft(float[] re, float[] im, int off, int step, int n, float[][] tw,
+          boolean inverse) {
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1) {
+        j ^= bit;
+      }
+      j ^= bit;
+      if (i < j) {
+        int a = off + i * step, b = off + j * step;
+        float t = re[a];
+        re[a] = re[b];
+        re[b] = t;
+        t = im[a];
+        im[a] = im[b];
+        im[b] = t;
+      }
+    }
+    float[] cos = tw[0], sin = tw[1];
+    for (int len = 2; len <= n; len <<= 1) {
+      int half = len >> 1, ts = n / len;
+      for (int i = 0; i < n; i += len) {
+        for (int k = 0; k < half; k++) {
+          float wr = cos[k * ts], wi = inverse ? sin[k * ts] : -sin[k * ts];
+          int a = off + (i + k) * step, b = a + half * step;
+          float xr = re[b] * wr - im[b] * wi;
+          float xi = re[b] * wi + im[b] * wr;
+          re[b] = re[a] - xr;
+          im[b] = im[a] - xi;
+          re[a] += xr;
+          im[a] += xi;
+        }
+      }
+    }
+  }
+}
@@ -8,43 +8,66 @@
 
 package org.sikuli.basics.proxies;
 
-public class FindInput {
+import java.io.Closeable;
+import org.sikuli.basics.Settings;
+
+public class FindInput implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_FindInput(cPtr);
+    }
+  };
+  private PixelMat sourcePixels = null;
+  private PixelMat targetPixels = null;
+  private FindOptions options = new FindOptions();
 
   protected FindInput(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(FindInput obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_FindInput(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
   }
 
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
+  }
+
   public FindInput() {
     this(VisionProxyJNI.new_FindInput__SWIG_0(), true);
   }
 
   public FindInput(Mat source, Mat target) {
     this(VisionProxyJNI.new_FindInput__SWIG_1(Mat.getCPtr(source), source, Mat.getCPtr(target), target), true);
+    sourcePixels = source.getPixels();
+    targetPixels = target.getPixels();
   }
 
   public FindInput(Mat source, int target_type, String target) {
     this(VisionProxyJNI.new_FindInput__SWIG_2(Mat.getCPtr(source), source, target_type, target), true);
+    sourcePixels = source.getPixels();
   }
 
   public FindInput(String source_filename, int target_type, String target) {
@@ -53,6 +76,7 @@ public class FindInput {
 
   public FindInput(Mat source, int target_type) {
     this(VisionProxyJNI.new_FindInput__SWIG_4(Mat.getCPtr(source), source, target_type), true);
+    sourcePixels = source.getPixels();
   }
 
   public FindInput(String source_filename, int target_type) {
@@ -61,22 +85,29 @@ public class FindInput {
 
   public FindInput(Mat source, FindInput other) {
     this(VisionProxyJNI.new_FindInput__SWIG_6(Mat.getCPtr(source), source, FindInput.getCPtr(other), other), true);
+    sourcePixels = source.getPixels();
+    targetPixels = other.targetPixels;
+    options = other.options.copy();
   }
 
   public void setSource(String source_filename) {
     VisionProxyJNI.FindInput_setSource__SWIG_0(swigCPtr, this, source_filename);
+    sourcePixels = null;
   }
 
   public void setTarget(int target_type, String target_string) {
     VisionProxyJNI.FindInput_setTarget__SWIG_0(swigCPtr, this, target_type, target_string);
+    targetPixels = null;
   }
 
   public void setSource(Mat source) {
     VisionProxyJNI.FindInput_setSource__SWIG_1(swigCPtr, this, Mat.getCPtr(source), source);
+    sourcePixels = source.getPixels();
   }
 
   public void setTarget(Mat target) {
     VisionProxyJNI.FindInput_setTarget__SWIG_1(swigCPtr, this, Mat.getCPtr(target), target);
+    targetPixels = target.getPixels();
   }
 
   public Mat getSourceMat() {
@@ -119,4 +150,120 @@ public class FindInput {
     return VisionProxyJNI.FindInput_getTargetText(swigCPtr, this);
   }
 
+  /**
+   * @return the pixels of the source Mat for the Java matchers, null if not known
+   */
+  public PixelMat getSourcePixels() {
+    return sourcePixels;
+  }
+
+  /**
+   * @return the pixels of the target Mat for the Java matchers, null if not known
+   */
+  public PixelMat getTargetPixels() {
+    return targetPixels;
+  }
+
+  /**
+   * @return the options only known to the Java matchers
+   */
+  public FindOptions getOptions() {
+    return options;
+  }
+
+  /**
+   * Java matcher: coarse to fine search on levels times halved images (0: off)
+   */
+  public void setPyramidLevels(int levels) {
+    options.setPyramidLevels(levels);
+  }
+
+  public int getPyramidLevels() {
+    return options.getPyramidLevels();
+  }
+
+  /**
+   * Java matcher, single find: return the first match scoring at least the similarity, scanned
+   * in the order given by setScanOrder() (the native matcher always scans the whole source)
+   */
+  public void setFindFirst(boolean first) {
+    options.setFindFirst(first);
+  }
+
+  public void setScanOrder(FindOptions.ScanOrder order) {
+    options.setScanOrder(order);
+  }
+
+  /**
+   * Java matcher: skip the parts of the source lacking the main colors of the target (the
+   * histograms of the source are made once per frame), a match with changed colors may be missed
+   */
+  public void setColorFilter(boolean filter) {
+    options.setColorFilter(filter);
+  }
+
+  /**
+   * Java matcher: match in gray (the gray source is made once per frame), the hits are verified
+   * in color
+   */
+  public void setGrayscale(boolean gray) {
+    options.setGrayscale(gray);
+  }
+
+  /**
+   * Java matcher: the best k non overlapping matches (at least the similarity, best first),
+   * only k candidates are kept while scanning (0: off)
+   */
+  public void setTopK(int k) {
+    options.setTopK(k);
+  }
+
+  /**
+   * Java matcher: search the target at the display scales Settings.FindScales (see setScales())
+   */
+  public void setMultiScale(boolean multi) {
+    options.setScales(multi ? Settings.FindScales : null);
+  }
+
+  /**
+   * Java matcher: search the target scaled by each of the scales, the one found is remembered
+   * per host and pattern and tried first next time, the results report the scale
+   * (FindResult.getScale())
+   */
+  public void setScales(double... scales) {
+    options.setScales(scales);
+  }
+
+  /**
+   * Java matcher: stop the search when System.nanoTime() reaches nanoTime (0: none), the best
+   * found so far is returned flagged as partial (FindResults.isPartial()), the native matcher
+   * ignores it
+   */
+  public void setDeadline(long nanoTime) {
+    options.setDeadline(nanoTime);
+  }
+
+  /**
+   * search only in the rectangle (x, y, w, h) of the source Mat, the Java matcher reads the
+   * pixels in place, the native matcher gets a copy of the region<br />
+   * the pixels of the source are needed (Mat.getPixels(), as with a MatArena frame or a Mat
+   * created while the Java matcher is selected), otherwise the native search throws an
+   * IllegalArgumentException
+   */
+  public void setRegion(int x, int y, int w, int h) {
+    options.setRegion(x, y, w, h);
+  }
+
+  public void clearRegion() {
+    options.clearRegion();
+  }
+
+  /**
+   * @param inFrame with a region: true: matches relative to the source (default), false: relative
+   * to the region
+   */
+  public void setResultsInFrame(boolean inFrame) {
+    options.setResultsInFrame(inFrame);
+  }
+
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.Arrays;
+import org.sikuli.basics.Settings;
+
+/**
+ * the search options of a FindInput as seen by the Java matchers<br />
+ * similarity, find all and limit mirror the native FindInput, the others are only known on the
+ * Java side (the native matcher ignores them)
+ */
+public class FindOptions {
+
+  /**
+   * order of the positions scanned by find first
+   */
+  public enum ScanOrder {
+
+    /**
+     * row by row from the top left
+     */
+    ROW_MAJOR,
+    /**
+     * outwards from the center of the source
+     */
+    CENTER_OUT,
+    /**
+     * outwards from where a target of the same pixels was found last (center if not yet found)
+     */
+    LAST_HIT_OUT
+  }
+
+  private double similarity = Settings.MinSimilarity;
+  private boolean findAll = false;
+  private int limit = 0;
+  private int topK = 0;
+  private int pyramidLevels = 0;
+  private int[] region = null;
+  private boolean resultsInFrame = true;
+  private boolean findFirst = false;
+  private ScanOrder scanOrder = ScanOrder.ROW_MAJOR;
+  private boolean colorFilter = false;
+  private boolean grayscale = false;
+  private double[] scales = null;
+  private Deadline deadline = Deadline.NONE;
+  // position of the searched source in the frame (a region searched as a view)
+  int frameX = 0, frameY = 0;
+
+  public FindOptions() {
+  }
+
+  public FindOptions copy() {
+    FindOptions o = new FindOptions();
+    o.similarity = similarity;
+    o.findAll = findAll;
+    o.limit = limit;
+    o.topK = topK;
+    o.pyramidLevels = pyramidLevels;
+    o.region = region;
+    o.resultsInFrame = resultsInFrame;
+    o.findFirst = findFirst;
+    o.scanOrder = scanOrder;
+    o.colorFilter = colorFilter;
+    o.grayscale = grayscale;
+    o.scales = scales;
+    o.deadline = deadline;
+    o.frameX = frameX;
+    o.frameY = frameY;
+    return o;
+  }
+
+  public double getSimilarity() {
+    return similarity;
+  }
+
+  public FindOptions setSimilarity(double similarity) {
+    this.similarity = similarity;
+    return this;
+  }
+
+  public boolean isFindingAll() {
+    return findAll;
+  }
+
+  public FindOptions setFindAll(boolean findAll) {
+    this.findAll = findAll;
+    return this;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @param limit with find all: max number of matches (0 or less: no limit)
+   */
+  public FindOptions setLimit(int limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  public int getTopK() {
+    return topK;
+  }
+
+  /**
+   * top k: the best k non overlapping matches scoring at least the similarity, best first (as
+   * find all with limit k), lower scores are pruned while scanning (TopK)
+   *
+   * @param k 0 or less: off (default)
+   */
+  public FindOptions setTopK(int k) {
+    topK = Math.max(0, k);
+    return this;
+  }
+
+  public boolean isFindingFirst() {
+    return findFirst;
+  }
+
+  /**
+   * single find: stop with the first position scoring at least the similarity (checked in blocks
+   * in the order given by setScanOrder()), the best position next to it is returned, which need
+   * not be the best match in the source
+   */
+  public FindOptions setFindFirst(boolean first) {
+    findFirst = first;
+    return this;
+  }
+
+  public ScanOrder getScanOrder() {
+    return scanOrder;
+  }
+
+  public FindOptions setScanOrder(ScanOrder order) {
+    scanOrder = order == null ? ScanOrder.ROW_MAJOR : order;
+    return this;
+  }
+
+  public boolean isColorFiltered() {
+    return colorFilter;
+  }
+
+  /**
+   * skip the parts of the source lacking the main colors of the target (ColorFilter), a match
+   * with changed colors may be missed
+   */
+  public FindOptions setColorFilter(boolean filter) {
+    colorFilter = filter;
+    return this;
+  }
+
+  public boolean isGrayscale() {
+    return grayscale;
+  }
+
+  /**
+   * match the gray pixels of source and target (a third of the work), the hits found are
+   * verified in color: a hit scoring less than the similarity in color is dropped<br />
+   * a gray source (or target) is matched without verification
+   */
+  public FindOptions setGrayscale(boolean gray) {
+    grayscale = gray;
+    return this;
+  }
+
+  /**
+   * @return the scales of the target tried by a multi-scale search, null: target as is
+   */
+  public double[] getScales() {
+    return scales;
+  }
+
+  /**
+   * multi-scale search: the target is searched scaled by each of the scales (e.g.
+   * Settings.FindScales), the scale that matched is remembered per host and target (ScaleCache)
+   * and tried first next time, the others are ranked by their best score on a coarse level<br />
+   * the matches report their scale (MatchBuffer.getScale(), FindResult.getScale())
+   *
+   * @param scales null or none: the target as is (default)
+   */
+  public FindOptions setScales(double... scales) {
+    this.scales = scales == null || scales.length == 0 ? null : scales.clone();
+    return this;
+  }
+
+  /**
+   * @return the deadline of the search (shared by the copies of these options)
+   */
+  public Deadline getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * the search stops when System.nanoTime() reaches nanoTime (checked for each row or tile) and
+   * returns the best found so far flagged as partial (MatchBuffer.isPartial())
+   *
+   * @param nanoTime 0: no deadline (default)
+   */
+  public FindOptions setDeadline(long nanoTime) {
+    deadline = nanoTime == 0 ? Deadline.NONE : new Deadline(nanoTime);
+    return this;
+  }
+
+  /**
+   * @param deadline the search stops, when it has passed or is cancelled (null: none)
+   */
+  public FindOptions setDeadline(Deadline deadline) {
+    this.deadline = deadline == null ? Deadline.NONE : deadline;
+    return this;
+  }
+
+  public int getPyramidLevels() {
+    return pyramidLevels;
+  }
+
+  /**
+   * coarse to fine search: the source and target are halved levels times, candidates found on the
+   * coarsest level are verified at full resolution (see Settings.PyramidTolerance)
+   *
+   * @param levels 0: exhaustive search at full resolution (default)
+   */
+  public FindOptions setPyramidLevels(int levels) {
+    pyramidLevels = Math.max(0, levels);
+    return this;
+  }
+
+  /**
+   * restricts the search to the rectangle (x, y, w, h) of the source, the pixels are read in
+   * place (no copy of the source)
+   */
+  public FindOptions setRegion(int x, int y, int w, int h) {
+    region = new int[]{x, y, w, h};
+    return this;
+  }
+
+  /**
+   * search the whole source (default)
+   */
+  public FindOptions clearRegion() {
+    region = null;
+    return this;
+  }
+
+  public boolean hasRegion() {
+    return region != null;
+  }
+
+  /**
+   * @return x, y, w, h of the region clipped to a source of the given size, null if no region
+   */
+  public int[] getRegion(int sourceWidth, int sourceHeight) {
+    if (region == null) {
+      return null;
+    }
+    int x = Math.min(sourceWidth, Math.max(0, region[0]));
+    int y = Math.min(sourceHeight, Math.max(0, region[1]));
+    int w = Math.min(sourceWidth, region[0] + region[2]) - x;
+    int h = Math.min(sourceHeight, region[1] + region[3]) - y;
+    return new int[]{x, y, Math.max(0, w), Math.max(0, h)};
+  }
+
+  /**
+   * @return all options but the deadline, the same for options making the same search
+   */
+  @Override
+  public String toString() {
+    return String.format("FindOptions(%s all %s limit %d top %d pyramid %d region %s inFrame %s"
+            + " first %s %s color %s gray %s scales %s at %d,%d)", similarity, findAll, limit, topK,
+            pyramidLevels, Arrays.toString(region), resultsInFrame, findFirst, scanOrder,
+            colorFilter, grayscale, Arrays.toString(scales), frameX, frameY);
+  }
+
+  public boolean isResultsInFrame() {
+    return resultsInFrame;
+  }
+
+  /**
+   * @param inFrame true: matches relative to the source (default), false: relative to the region
+   */
+  public FindOptions setResultsInFrame(boolean inFrame) {
+    resultsInFrame = inFrame;
+    return this;
+  }
+}
@@ -8,33 +8,51 @@
 
 package org.sikuli.basics.proxies;
 
-public class FindResult {
+import java.io.Closeable;
+
+public class FindResult implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  // Java side only (not in the native result)
+  private double scale = 1;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_FindResult(cPtr);
+    }
+  };
 
   protected FindResult(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(FindResult obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_FindResult(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
   }
 
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
+  }
+
   public void setX(int value) {
     VisionProxyJNI.FindResult_x_set(swigCPtr, this, value);
   }
@@ -83,6 +101,17 @@ public class FindResult {
     this(VisionProxyJNI.new_FindResult__SWIG_1(_x, _y, _w, _h, _score), true);
   }
 
+  /**
+   * @return the scale of the target matched (Java matcher, multi-scale search), 1 otherwise
+   */
+  public double getScale() {
+    return scale;
+  }
+
+  void setScale(double scale) {
+    this.scale = scale;
+  }
+
   public void setText(String value) {
     VisionProxyJNI.FindResult_text_set(swigCPtr, this, value);
   }
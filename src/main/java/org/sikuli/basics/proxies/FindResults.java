@@ -8,33 +8,53 @@
 
 package org.sikuli.basics.proxies;
 
-public class FindResults {
+import java.io.Closeable;
+
+public class FindResults implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_FindResults(cPtr);
+    }
+  };
+  // scales of the results of a multi-scale search, null: all 1
+  private double[] scales = null;
+  // the Java search stopped at its deadline
+  private boolean partial = false;
 
   protected FindResults(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(FindResults obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_FindResults(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
   }
 
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
+  }
+
   public FindResults() {
     this(VisionProxyJNI.new_FindResults__SWIG_0(), true);
   }
@@ -68,11 +88,111 @@ public class FindResults {
   }
 
   public FindResult get(int i) {
-    return new FindResult(VisionProxyJNI.FindResults_get(swigCPtr, this, i), false);
+    FindResult r = new FindResult(VisionProxyJNI.FindResults_get(swigCPtr, this, i), false);
+    if (scales != null && i < scales.length) {
+      r.setScale(scales[i]);
+    }
+    return r;
+  }
+
+  /**
+   * @param scales of the results found by a multi-scale search (Java side only, see
+   * FindResult.getScale())
+   */
+  void setScales(double[] scales) {
+    this.scales = scales;
+  }
+
+  /**
+   * @return true if the Java matcher stopped at the deadline of the search
+   * (FindInput.setDeadline()): the results are the best found in the part searched
+   */
+  public boolean isPartial() {
+    return partial;
+  }
+
+  void setPartial(boolean partial) {
+    this.partial = partial;
   }
 
   public void set(int i, FindResult val) {
     VisionProxyJNI.FindResults_set(swigCPtr, this, i, FindResult.getCPtr(val), val);
   }
 
+  /**
+   * copies all results to Java arrays (see toMatchBuffer())<br />
+   * this is no bulk transfer: the native library has no export, each result is read with get(i)
+   * and its five getters, only reading the arrays afterwards takes no native calls
+   *
+   * @param boxes x, y, w, h of result i at 4 * i, at least 4 * size() long
+   * @param scores score of result i at i, at least size() long
+   * @return number of results copied
+   */
+  public int export(int[] boxes, double[] scores) {
+    int n = (int) size();
+    if (boxes.length < 4 * n || scores.length < n) {
+      throw new IllegalArgumentException("FindResults.export: arrays too short for " + n + " results");
+    }
+    for (int i = 0; i < n; i++) {
+      FindResult r = get(i);
+      boxes[4 * i] = r.getX();
+      boxes[4 * i + 1] = r.getY();
+      boxes[4 * i + 2] = r.getW();
+      boxes[4 * i + 3] = r.getH();
+      scores[i] = r.getScore();
+    }
+    return n;
+  }
+
+  /**
+   * @return all results copied to the Java side (see export())
+   */
+  public MatchBuffer toMatchBuffer() {
+    int n = (int) size();
+    int[] boxes = new int[4 * n];
+    double[] scores = new double[n];
+    n = export(boxes, scores);
+    MatchBuffer found = new MatchBuffer(boxes, scores, n);
+    if (scales != null) {
+      MatchBuffer scaled = new MatchBuffer(n);
+      for (int i = 0; i < n; i++) {
+        scaled.add(found.getX(i), found.getY(i), found.getW(i), found.getH(i), found.getScore(i),
+                i < scales.length ? scales[i] : 1);
+      }
+      found = scaled;
+    }
+    found.setPartial(partial);
+    return found;
+  }
+
+  /**
+   * non-maximum suppression (see MatchBuffer.suppressOverlaps()): keeps the best scoring
+   * results, whose intersection over union with each better result kept is at most maxOverlap,
+   * best first
+   */
+  public void suppressOverlaps(double maxOverlap) {
+    MatchBuffer found = toMatchBuffer();
+    found.suppressOverlaps(maxOverlap, 0);
+    clear();
+    double[] kept = scales == null ? null : new double[found.size()];
+    for (int i = 0; i < found.size(); i++) {
+      FindResult r = new FindResult(found.getX(i), found.getY(i), found.getW(i), found.getH(i),
+              found.getScore(i));
+      add(r);
+      r.delete();
+      if (kept != null) {
+        kept[i] = found.getScale(i);
+      }
+    }
+    scales = kept;
+  }
+
+  /**
+   * @return a spatial index of the results for queries by rectangle and point (MatchIndex), on
+   * a copy made now
+   */
+  public MatchIndex index() {
+    return toMatchBuffer().index();
+  }
+
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.List;
+
+/**
+ * Interface for the image search engines behind Vision.find()<br />
+ * implementations are found with ServiceLoader (META-INF/services) and selected by name with
+ * Matchers.select()
+ */
+public interface IMatcher {
+
+  /**
+   * @return the name used to select this matcher (case is ignored)
+   */
+  public String getName();
+
+  /**
+   * searches the target of the given FindInput in its source
+   *
+   * @param q source, target, similarity, find all and limit
+   * @return the matches, best first
+   */
+  public FindResults find(FindInput q);
+
+  /**
+   * as find(), but the matches are returned in Java arrays (no native object per match)
+   *
+   * @param q source, target, similarity, find all and limit
+   * @return the matches, best first
+   */
+  public MatchBuffer findMatches(FindInput q);
+
+  /**
+   * searches the targets of the given FindInputs in the one source
+   *
+   * @param source replaces the sources of the FindInputs
+   * @param targets target, similarity, find all and limit for each search
+   * @return the FindResults for each target, in the order of targets
+   */
+  public List<FindResults> findMany(Mat source, List<FindInput> targets);
+}
@@ -0,0 +1,933 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.sikuli.basics.Settings;
+
+/**
+ * pure Java image search: normalized cross correlation (as OpenCV's CV_TM_CCOEFF_NORMED)
+ * over the color channels, the rows of the result are scanned in parallel bands,
+ * find all searches overlapping tiles of the source in parallel,
+ * large targets are correlated in the frequency domain (FFTCorrelator)<br />
+ * a target of one plain color is scored by its mean squared difference instead, a target with
+ * transparent pixels by its opaque pixels only (MatchTarget.isMasked()),
+ * with a similarity of at least Settings.ExactMatchSimilarity pixel exact matches are looked
+ * for first (ExactMatcher, for several matches only enough of them end the search),
+ * positions are prescreened by anchor pixels of the target (Prescreen), optionally parts of
+ * the source are skipped by their colors (ColorFilter) or the gray pixels are matched and
+ * only the hits verified in color<br />
+ * a search with a deadline (FindOptions.setDeadline()) checks it for each row or tile and
+ * returns the best found so far flagged as partial, when it has passed<br />
+ * used by Vision.find() after Matchers.select("java") or with -Dsikuli.Matcher=java,
+ * FindInputs without Java pixels (e.g. text targets) are handed to the native matcher
+ */
+public class JavaMatcher implements ThreadSafeMatcher {
+
+  public static final String NAME = "java";
+  private static final int MIN_BAND_ROWS = 4;
+  private static final int MIN_PYRAMID_SIZE = 8;
+  // find first: positions per side of the blocks checked in parallel
+  private static final int FIRST_BLOCK = 32;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public FindResults find(FindInput q) {
+    if (!hasPixels(q)) {
+      return Matchers.getNative().find(q);
+    }
+    return findMatches(q).toFindResults();
+  }
+
+  @Override
+  public MatchBuffer findMatches(FindInput q) {
+    if (!hasPixels(q)) {
+      return Matchers.getNative().findMatches(q);
+    }
+    return find(q.getSourcePixels(), q.getTargetPixels(), optionsOf(q));
+  }
+
+  static boolean hasPixels(FindInput q) {
+    return q.getSourcePixels() != null && q.getTargetPixels() != null
+            && q.getTargetType() == TARGET_TYPE.IMAGE;
+  }
+
+  /**
+   * the source is prepared once (integral images, pyramid levels) and shared by the searches for
+   * the targets, that run in parallel
+   */
+  @Override
+  public List<FindResults> findMany(Mat source, List<FindInput> targets) {
+    PixelMat pixels = source.getPixels();
+    if (pixels == null) {
+      return Matchers.getNative().findMany(source, targets);
+    }
+    final MatchSource prepared = MatchSource.of(pixels);
+    final MatchBuffer[] found = new MatchBuffer[targets.size()];
+    List<Runnable> searches = new ArrayList<Runnable>();
+    for (int i = 0; i < targets.size(); i++) {
+      FindInput q = targets.get(i);
+      final PixelMat target = q.getTargetPixels();
+      if (target == null || q.getTargetType() != TARGET_TYPE.IMAGE) {
+        continue;
+      }
+      final int n = i;
+      final FindOptions options = optionsOf(q);
+      searches.add(new Runnable() {
+        @Override
+        public void run() {
+          found[n] = find(prepared, TargetCache.prepared(target), options);
+        }
+      });
+    }
+    MatchPool.invokeAll(searches);
+    List<FindResults> results = new ArrayList<FindResults>(targets.size());
+    for (int i = 0; i < targets.size(); i++) {
+      if (found[i] != null) {
+        results.add(found[i].toFindResults());
+      } else {
+        results.add(Matchers.getNative()
+                .findMany(source, Collections.singletonList(targets.get(i))).get(0));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return the Java side options of q with similarity, find all and limit taken from q
+   */
+  public static FindOptions optionsOf(FindInput q) {
+    return q.getOptions().copy().setSimilarity(q.getSimilarity())
+            .setFindAll(q.isFindingAll()).setLimit(q.getLimit());
+  }
+
+  /**
+   * @param similarity minimum score of a match
+   * @param all false: only the best match, true: all non overlapping matches
+   * @param limit with all: max number of matches (0 or less: no limit)
+   * @return the matches, best first
+   */
+  public static MatchBuffer find(PixelMat source, PixelMat target,
+          double similarity, boolean all, int limit) {
+    return find(source, target,
+            new FindOptions().setSimilarity(similarity).setFindAll(all).setLimit(limit));
+  }
+
+  public static MatchBuffer find(PixelMat source, PixelMat target, FindOptions options) {
+    MatchTarget prepared = TargetCache.prepared(target);
+    if (options.hasRegion()) {
+      return findInRegion(MatchSource.of(source), prepared, options);
+    }
+    return find(MatchSource.of(source), prepared, options);
+  }
+
+  public static MatchBuffer find(MatchSource source, MatchTarget target, FindOptions options) {
+    MatchBuffer found = search(source, target, options);
+    found.setPartial(options.getDeadline().hasPassed());
+    return found;
+  }
+
+  private static MatchBuffer search(MatchSource source, MatchTarget target, FindOptions options) {
+    Deadline deadline = options.getDeadline();
+    if (options.hasRegion()) {
+      return findInRegion(source, target, options);
+    }
+    if (options.getScales() != null) {
+      return findScaled(source, target, options);
+    }
+    if (options.isGrayscale()) {
+      return findGray(source, target, options);
+    }
+    if (options.getSimilarity() >= Settings.ExactMatchSimilarity && !target.isPlain()
+            && !target.isMasked()) {
+      boolean top = options.getTopK() > 0, all = options.isFindingAll() || top;
+      int limit = top ? options.getTopK() : options.getLimit();
+      MatchBuffer exact = ExactMatcher.find(source, target, all, limit, deadline);
+      // several matches: the exact ones only do, if there are as many as wanted (score 1 is
+      // the best), otherwise the close ones are searched too
+      if (deadline.hasPassed() || (all ? limit > 0 && exact.size() >= limit : !exact.isEmpty())) {
+        return exact;
+      }
+    }
+    if (options.isColorFiltered()) {
+      source = ColorFilter.filter(source, target);
+      if (source == null) {
+        return new MatchBuffer();
+      }
+    }
+    if (options.getTopK() > 0) {
+      return findTopK(source, target, options.getTopK(), options.getSimilarity(), deadline);
+    }
+    if (options.getPyramidLevels() > 0) {
+      return findPyramid(source, target, options);
+    }
+    if (options.isFindingFirst() && !options.isFindingAll() && !useFFT(target)) {
+      return findFirst(source, target, options);
+    }
+    return find(source, target,
+            options.getSimilarity(), options.isFindingAll(), options.getLimit(), deadline);
+  }
+
+  public static MatchBuffer find(MatchSource source, MatchTarget target,
+          double similarity, boolean all, int limit) {
+    return find(source, target, similarity, all, limit, Deadline.NONE);
+  }
+
+  /**
+   * @param deadline checked for each row or tile, when passed the best found so far is returned
+   */
+  public static MatchBuffer find(MatchSource source, MatchTarget target,
+          double similarity, boolean all, int limit, Deadline deadline) {
+    if (useFFT(target)) {
+      // the FFT blocks do not follow the color filter
+      return FFTCorrelator.find(source.getUnmasked(), target, similarity, all, limit, deadline);
+    }
+    if (all) {
+      return findAll(source, target, similarity, limit, deadline);
+    }
+    return scan(source, target, 0, 0,
+            source.getWidth() - target.getWidth() + 1,
+            source.getHeight() - target.getHeight() + 1, similarity, false, deadline);
+  }
+
+  /**
+   * searches the region of the source, its pixels and integral images are used in place
+   */
+  private static MatchBuffer findInRegion(MatchSource source, MatchTarget target,
+          FindOptions options) {
+    int[] r = options.getRegion(source.getWidth(), source.getHeight());
+    FindOptions inRegion = options.copy().clearRegion();
+    inRegion.frameX += r[0];
+    inRegion.frameY += r[1];
+    MatchBuffer found = find(source.region(r[0], r[1], r[2], r[3]), target, inRegion);
+    if (options.isResultsInFrame()) {
+      found.translate(r[0], r[1]);
+    }
+    return found;
+  }
+
+  /**
+   * multi-scale search (options.getScales()): the target is searched at the scale remembered for
+   * it (ScaleCache) first, if not found there, the other scales are ranked by the best score of
+   * the scaled target on a coarse level of the source and searched in that order (those below
+   * similarity - Settings.PyramidTolerance last), until the target is found
+   */
+  private static MatchBuffer findScaled(MatchSource source, MatchTarget target,
+          FindOptions options) {
+    FindOptions single = options.copy().setScales((double[]) null);
+    double known = ScaleCache.get(target);
+    if (known > 0) {
+      MatchBuffer found = find(source, target.getScaled(known), single);
+      ScaleCache.count(!found.isEmpty());
+      if (!found.isEmpty()) {
+        found.setScale(known);
+        return found;
+      }
+    } else {
+      ScaleCache.count(false);
+    }
+    if (options.getDeadline().hasPassed()) {
+      return new MatchBuffer();
+    }
+    for (double scale : rankScales(source, target, options, known)) {
+      if (options.getDeadline().check()) {
+        break;
+      }
+      MatchBuffer found = find(source, target.getScaled(scale), single);
+      if (!found.isEmpty()) {
+        found.setScale(scale);
+        ScaleCache.put(target, scale);
+        return found;
+      }
+    }
+    return new MatchBuffer();
+  }
+
+  /**
+   * @return the scales (without skip) by the best score of the scaled target on a coarse level
+   * (up to 2 times halved), then those too small for a coarse level, then those not found there
+   * (as given)
+   */
+  private static List<Double> rankScales(MatchSource source, MatchTarget target,
+          FindOptions options, double skip) {
+    double min = options.getSimilarity() - Settings.PyramidTolerance;
+    final List<Double> scales = new ArrayList<Double>();
+    final List<Double> coarse = new ArrayList<Double>();
+    for (double scale : options.getScales()) {
+      MatchTarget scaled = target.getScaled(scale);
+      if (scale == skip || scales.contains(scale) || scaled.getWidth() > source.getWidth()
+              || scaled.getHeight() > source.getHeight()) {
+        continue;
+      }
+      int level = 0;
+      while (level < 2 && (scaled.getWidth() >> (level + 1)) >= MIN_PYRAMID_SIZE
+              && (scaled.getHeight() >> (level + 1)) >= MIN_PYRAMID_SIZE) {
+        level++;
+      }
+      double best = min;
+      if (level > 0) {
+        MatchSource s = source.getLevel(level);
+        MatchTarget t = scaled.getLevel(level);
+        MatchBuffer found = scan(s, t, 0, 0, s.getWidth() - t.getWidth() + 1,
+                s.getHeight() - t.getHeight() + 1, min, false, options.getDeadline());
+        // not found on the coarse level: still searched, but last (the coarse score is only
+        // an estimate)
+        best = found.isEmpty() ? -2 : found.getScore(0);
+      }
+      scales.add(scale);
+      coarse.add(best);
+    }
+    List<Double> ranked = new ArrayList<Double>(scales);
+    Collections.sort(ranked, new Comparator<Double>() {
+      @Override
+      public int compare(Double a, Double b) {
+        double ca = coarse.get(scales.indexOf(a)), cb = coarse.get(scales.indexOf(b));
+        return ca > cb ? -1 : (ca < cb ? 1 : 0);
+      }
+    });
+    return ranked;
+  }
+
+  /**
+   * searches the gray source for the gray target (all other options apply), the hits are scored
+   * again in color and dropped if below the similarity (with the color score otherwise)<br />
+   * single find: the best Settings.PyramidCandidates gray hits are verified (a hit of the same
+   * gray, but other colors may score best in gray), the best in color is returned, with find
+   * first only the hit found is verified, if dropped the candidates are
+   */
+  private static MatchBuffer findGray(MatchSource source, MatchTarget target,
+          FindOptions options) {
+    FindOptions inGray = options.copy().setGrayscale(false);
+    MatchSource graySource = source.getGray();
+    MatchTarget grayTarget = target.getGray();
+    if (source.getColorChannels() != target.getColorChannels() || target.getColorChannels() == 1) {
+      // nothing to verify with
+      return find(graySource, grayTarget, inGray);
+    }
+    double similarity = options.getSimilarity();
+    if (options.isFindingAll() || options.getTopK() > 0) {
+      return verifyInColor(source, target, find(graySource, grayTarget, inGray), similarity);
+    }
+    if (options.isFindingFirst()) {
+      MatchBuffer first = verifyInColor(source, target,
+              find(graySource, grayTarget, inGray), similarity);
+      if (!first.isEmpty()) {
+        return first;
+      }
+    }
+    MatchBuffer candidates = find(graySource, grayTarget, inGray.setFindAll(true)
+            .setFindFirst(false).setLimit(Settings.PyramidCandidates));
+    MatchBuffer verified = verifyInColor(source, target, candidates, similarity);
+    verified.suppressOverlaps(1);
+    return verified;
+  }
+
+  private static MatchBuffer verifyInColor(MatchSource source, MatchTarget target,
+          MatchBuffer found, double similarity) {
+    MatchBuffer verified = new MatchBuffer(found.size());
+    for (int i = 0; i < found.size(); i++) {
+      double s = score(source, target, found.getX(i), found.getY(i));
+      if (s >= similarity) {
+        verified.add(found.getX(i), found.getY(i), found.getW(i), found.getH(i), s);
+      }
+    }
+    verified.sortByScore();
+    return verified;
+  }
+
+  /**
+   * @return true if the target is large enough for the FFT (Settings.FFTMinTargetArea), a masked
+   * target is always scored directly
+   */
+  public static boolean useFFT(MatchTarget target) {
+    return Settings.FFTMinTargetArea > 0 && !target.isPlain() && !target.isMasked()
+            && target.getWidth() * target.getHeight() >= Settings.FFTMinTargetArea;
+  }
+
+  /**
+   * find all: the source is split into tiles (Settings.FindAllTileSize) overlapping by the target
+   * size, the tiles are searched in parallel, all their positions scoring at least similarity
+   * are merged and only then de-duplicated (a position dropped inside its tile could be needed,
+   * when the better one dropping it is dropped by one of another tile), so the matches do not
+   * depend on the tiles
+   *
+   * @param limit max number of matches (0 or less: no limit)
+   * @return the non overlapping matches scoring at least similarity, best first
+   */
+  public static MatchBuffer findAll(MatchSource source, MatchTarget target,
+          double similarity, int limit) {
+    return findAll(source, target, similarity, limit, Deadline.NONE);
+  }
+
+  /**
+   * @param deadline checked for each tile and row, when passed the matches found so far are
+   * returned
+   */
+  public static MatchBuffer findAll(MatchSource source, MatchTarget target,
+          double similarity, int limit, Deadline deadline) {
+    return findAll(source, target, similarity, limit, deadline, null);
+  }
+
+  /**
+   * @param floor null or (top k) raised by the tiles, positions below it are not kept
+   */
+  private static MatchBuffer findAll(MatchSource source, MatchTarget target,
+          double similarity, int limit, Deadline deadline, TopK.Floor floor) {
+    int rw = source.getWidth() - target.getWidth() + 1;
+    int rh = source.getHeight() - target.getHeight() + 1;
+    MatchBuffer found = new MatchBuffer();
+    if (rw <= 0 || rh <= 0 || target.getColorChannels() != source.getColorChannels()) {
+      return found;
+    }
+    int size = Math.max(16, Settings.FindAllTileSize);
+    List<Tile> tiles = new ArrayList<Tile>();
+    for (int ty = 0; ty < rh; ty += size) {
+      for (int tx = 0; tx < rw; tx += size) {
+        tiles.add(new Tile(source, target, tx, ty, Math.min(tx + size, rw), Math.min(ty + size, rh),
+                similarity, deadline, floor, limit));
+      }
+    }
+    MatchPool.invokeAll(tiles);
+    for (Tile tile : tiles) {
+      found.addAll(tile.found);
+    }
+    found.suppressOverlaps(limit);
+    return found;
+  }
+
+  /**
+   * top k: searched as find all with limit k, but the positions scoring below a floor are not
+   * kept, the floor is raised by each tile to the k-th best of 4 * k non overlapping positions
+   * seen there (TopK): a match overlaps at most 4 of them, so at least k matches score above
+   * the floor, finally the positions of the tiles are merged as by find all, if this still
+   * leaves fewer than k, find all is run without the floor<br />
+   * a target large enough for the FFT is searched as find all with limit k
+   *
+   * @return the best k non overlapping matches scoring at least similarity, best first (as find
+   * all with limit k)
+   */
+  public static MatchBuffer findTopK(final MatchSource source, final MatchTarget target,
+          final int k, double similarity) {
+    return findTopK(source, target, k, similarity, Deadline.NONE);
+  }
+
+  /**
+   * @param deadline checked for each row, when passed the best found so far are returned
+   */
+  public static MatchBuffer findTopK(final MatchSource source, final MatchTarget target,
+          final int k, double similarity, final Deadline deadline) {
+    if (useFFT(target)) {
+      return FFTCorrelator.find(source.getUnmasked(), target, similarity, true, k, deadline);
+    }
+    TopK.Floor floor = new TopK.Floor(similarity);
+    MatchBuffer found = findAll(source, target, similarity, k, deadline, floor);
+    if (found.size() < k && floor.get() > similarity && !deadline.hasPassed()) {
+      // the positions left out below the floor are needed after all
+      found = findAll(source, target, similarity, k, deadline);
+    }
+    return found;
+  }
+
+  /**
+   * scans the positions x0 &lt;= x &lt; x1, y0 &lt;= y &lt; y1 row by row in the calling thread (as
+   * scanRect()), adds those scoring at least the floor to found and offers them to top, until
+   * the deadline has passed
+   */
+  static void scanTopK(MatchSource source, MatchTarget target, int x0, int y0, int x1, int y1,
+          TopK top, TopK.Floor floor, MatchBuffer found, Deadline deadline) {
+    MatchBuffer row = new MatchBuffer();
+    for (int y = y0; y < y1 && !deadline.hasPassed(); y++) {
+      // raised by the other tiles meanwhile: taken for each row
+      scanRect(source, target, x0, y, x1, y + 1, floor.get(), true, row, deadline);
+      for (int i = 0; i < row.size(); i++) {
+        top.offer(row.getX(i), row.getY(i), row.getScore(i));
+      }
+      found.addAll(row);
+      row.clear();
+    }
+  }
+
+  /**
+   * find first: the positions are checked in blocks ordered by options.getScanOrder(), as many
+   * blocks in parallel as there are threads, the search stops after the first blocks with a
+   * position scoring at least the similarity, from the best of them it climbs to the local
+   * maximum of the score
+   *
+   * @return the match found first or nothing
+   */
+  public static MatchBuffer findFirst(MatchSource source, MatchTarget target,
+          FindOptions options) {
+    final int rw = source.getWidth() - target.getWidth() + 1;
+    final int rh = source.getHeight() - target.getHeight() + 1;
+    MatchBuffer found = new MatchBuffer();
+    if (rw <= 0 || rh <= 0 || target.getColorChannels() != source.getColorChannels()) {
+      return found;
+    }
+    List<int[]> blocks = new ArrayList<int[]>();
+    for (int by = 0; by < rh; by += FIRST_BLOCK) {
+      for (int bx = 0; bx < rw; bx += FIRST_BLOCK) {
+        blocks.add(new int[]{bx, by, Math.min(bx + FIRST_BLOCK, rw),
+          Math.min(by + FIRST_BLOCK, rh)});
+      }
+    }
+    if (options.getScanOrder() != FindOptions.ScanOrder.ROW_MAJOR) {
+      int[] hit = options.getScanOrder() == FindOptions.ScanOrder.LAST_HIT_OUT
+              ? target.getLastHit() : null;
+      final int ox = hit == null ? rw / 2 : hit[0] - options.frameX;
+      final int oy = hit == null ? rh / 2 : hit[1] - options.frameY;
+      Collections.sort(blocks, new Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+          long da = distance(a, ox, oy), db = distance(b, ox, oy);
+          return da < db ? -1 : (da > db ? 1 : 0);
+        }
+      });
+    }
+    double similarity = options.getSimilarity();
+    Deadline deadline = options.getDeadline();
+    AtomicBoolean stop = new AtomicBoolean(false);
+    int wave = MatchPool.getThreads();
+    for (int i = 0; i < blocks.size() && found.isEmpty() && !deadline.check(); i += wave) {
+      List<FirstBlock> tasks = new ArrayList<FirstBlock>(wave);
+      for (int[] b : blocks.subList(i, Math.min(i + wave, blocks.size()))) {
+        tasks.add(new FirstBlock(source, target, b, similarity, stop, deadline));
+      }
+      MatchPool.invokeAll(tasks);
+      for (FirstBlock task : tasks) {
+        found.addAll(task.found);
+      }
+    }
+    if (found.isEmpty()) {
+      return found;
+    }
+    int best = found.best();
+    MatchBuffer one = climb(source, target, found.getX(best), found.getY(best),
+            found.getScore(best), rw, rh);
+    target.setLastHit(one.getX(0) + options.frameX, one.getY(0) + options.frameY);
+    return one;
+  }
+
+  /**
+   * @return squared distance of (x, y) to the nearest position of the block
+   */
+  private static long distance(int[] block, int x, int y) {
+    long dx = x < block[0] ? block[0] - x : (x >= block[2] ? x - block[2] + 1 : 0);
+    long dy = y < block[1] ? block[1] - y : (y >= block[3] ? y - block[3] + 1 : 0);
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * moves to the best scoring neighbour as long as the score increases
+   */
+  private static MatchBuffer climb(MatchSource source, MatchTarget target, int x, int y,
+          double s, int rw, int rh) {
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      int bx = x, by = y;
+      for (int ny = Math.max(0, y - 1); ny <= Math.min(rh - 1, y + 1); ny++) {
+        for (int nx = Math.max(0, x - 1); nx <= Math.min(rw - 1, x + 1); nx++) {
+          double ns = score(source, target, nx, ny);
+          if (ns > s) {
+            s = ns;
+            bx = nx;
+            by = ny;
+            moved = true;
+          }
+        }
+      }
+      x = bx;
+      y = by;
+    }
+    MatchBuffer one = new MatchBuffer(1);
+    one.add(x, y, target.getWidth(), target.getHeight(), s);
+    return one;
+  }
+
+  private static class FirstBlock implements Runnable {
+
+    final MatchSource source;
+    final MatchTarget target;
+    final int[] block;
+    final double minScore;
+    final AtomicBoolean stop;
+    final Deadline deadline;
+    final MatchBuffer found = new MatchBuffer(1);
+
+    FirstBlock(MatchSource source, MatchTarget target, int[] block, double minScore,
+            AtomicBoolean stop, Deadline deadline) {
+      this.source = source;
+      this.target = target;
+      this.block = block;
+      this.minScore = minScore;
+      this.stop = stop;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      int w = target.getWidth(), h = target.getHeight();
+      Prescreen pre = Prescreen.of(target);
+      long start = pre == null ? 0 : System.nanoTime();
+      long positions = 0, skipped = 0;
+      scan:
+      for (int y = block[1]; y < block[3] && !stop.get() && !deadline.check(); y++) {
+        for (int x = block[0]; x < block[2]; x++) {
+          if (!source.allows(x, y)) {
+            continue;
+          }
+          positions++;
+          if (pre != null && pre.rejects(source, x, y, minScore)) {
+            skipped++;
+            continue;
+          }
+          double s = score(source, target, x, y);
+          if (s >= minScore) {
+            found.add(x, y, w, h, s);
+            stop.set(true);
+            break scan;
+          }
+        }
+      }
+      if (pre != null) {
+        pre.count(positions, skipped, System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * coarse to fine: searches the halved images for candidates (score at least similarity -
+   * Settings.PyramidTolerance) and verifies them at full resolution in small windows around the
+   * scaled up positions, a level without confirmed candidates falls back to the next finer level,
+   * finally to the exhaustive search
+   */
+  public static MatchBuffer findPyramid(MatchSource source, MatchTarget target,
+          FindOptions options) {
+    int levels = options.getPyramidLevels();
+    while (levels > 0 && ((target.getWidth() >> levels) < MIN_PYRAMID_SIZE
+            || (target.getHeight() >> levels) < MIN_PYRAMID_SIZE)) {
+      levels--;
+    }
+    double similarity = options.getSimilarity();
+    boolean all = options.isFindingAll();
+    Deadline deadline = options.getDeadline();
+    for (int l = levels; l > 0; l--) {
+      MatchBuffer candidates = findAll(source.getLevel(l), target.getLevel(l),
+              similarity - Settings.PyramidTolerance, all ? 0 : Settings.PyramidCandidates,
+              deadline);
+      if (candidates.isEmpty()) {
+        if (deadline.hasPassed()) {
+          return candidates;
+        }
+        continue;
+      }
+      MatchBuffer found = verify(source, target, candidates, 1 << l, similarity);
+      if (!found.isEmpty()) {
+        if (all) {
+          found.suppressOverlaps(options.getLimit());
+        } else {
+          found.suppressOverlaps(1);
+        }
+        return found;
+      }
+    }
+    return find(source, target, similarity, all, options.getLimit(), deadline);
+  }
+
+  /**
+   * the windows around the candidates are few and small, they are verified even after the
+   * deadline
+   */
+  private static MatchBuffer verify(MatchSource source, MatchTarget target,
+          MatchBuffer candidates, int factor, double similarity) {
+    int rw = source.getWidth() - target.getWidth() + 1;
+    int rh = source.getHeight() - target.getHeight() + 1;
+    List<Band> windows = new ArrayList<Band>(candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      int x = candidates.getX(i) * factor, y = candidates.getY(i) * factor;
+      windows.add(new Band(source, target, Math.max(0, x - factor), Math.max(0, y - factor),
+              Math.min(rw, x + factor + 1), Math.min(rh, y + factor + 1), similarity, false,
+              Deadline.NONE));
+    }
+    MatchPool.invokeAll(windows);
+    MatchBuffer found = new MatchBuffer();
+    for (Band window : windows) {
+      found.addAll(window.found);
+    }
+    return found;
+  }
+
+  private static class Tile implements Runnable {
+
+    final MatchSource source;
+    final MatchTarget target;
+    final int x0, y0, x1, y1;
+    final double minScore;
+    final Deadline deadline;
+    final TopK.Floor floor;
+    final int k;
+    final MatchBuffer found = new MatchBuffer();
+
+    Tile(MatchSource source, MatchTarget target, int x0, int y0, int x1, int y1,
+            double minScore, Deadline deadline, TopK.Floor floor, int k) {
+      this.source = source;
+      this.target = target;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.minScore = minScore;
+      this.deadline = deadline;
+      this.floor = floor;
+      this.k = k;
+    }
+
+    @Override
+    public void run() {
+      if (floor == null) {
+        scanRect(source, target, x0, y0, x1, y1, minScore, true, found, deadline);
+      } else {
+        TopK top = new TopK(4 * k, target.getWidth(), target.getHeight(), floor);
+        scanTopK(source, target, x0, y0, x1, y1, top, floor, found, deadline);
+      }
+    }
+  }
+
+  /**
+   * scores all target positions (x, y) with x0 &lt;= x &lt; x1, y0 &lt;= y &lt; y1
+   *
+   * @return all positions scoring at least minScore (all == true) or the best one of them
+   */
+  public static MatchBuffer scan(MatchSource source, MatchTarget target,
+          int x0, int y0, int x1, int y1, double minScore, boolean all) {
+    return scan(source, target, x0, y0, x1, y1, minScore, all, Deadline.NONE);
+  }
+
+  /**
+   * @param deadline checked for each row, when passed the best found so far is returned
+   */
+  public static MatchBuffer scan(MatchSource source, MatchTarget target,
+          int x0, int y0, int x1, int y1, double minScore, boolean all, Deadline deadline) {
+    MatchBuffer found = new MatchBuffer();
+    int rows = y1 - y0;
+    if (rows <= 0 || x1 <= x0 || target.getColorChannels() != source.getColorChannels()) {
+      return found;
+    }
+    int n = MatchPool.chunks(rows, MIN_BAND_ROWS);
+    List<Band> bands = new ArrayList<Band>(n);
+    for (int i = 0; i < n; i++) {
+      bands.add(new Band(source, target, x0, y0 + rows * i / n, x1, y0 + rows * (i + 1) / n,
+              minScore, all, deadline));
+    }
+    MatchPool.invokeAll(bands);
+    for (Band band : bands) {
+      found.addAll(band.found);
+    }
+    if (!all && found.size() > 1) {
+      int best = found.best();
+      MatchBuffer one = new MatchBuffer(1);
+      one.add(found.getX(best), found.getY(best), found.getW(best), found.getH(best),
+              found.getScore(best));
+      found = one;
+    }
+    return found;
+  }
+
+  private static class Band implements Runnable {
+
+    final MatchSource source;
+    final MatchTarget target;
+    final int x0, y0, x1, y1;
+    final double minScore;
+    final boolean all;
+    final Deadline deadline;
+    final MatchBuffer found = new MatchBuffer();
+
+    Band(MatchSource source, MatchTarget target, int x0, int y0, int x1, int y1,
+            double minScore, boolean all, Deadline deadline) {
+      this.source = source;
+      this.target = target;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.minScore = minScore;
+      this.all = all;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      scanRect(source, target, x0, y0, x1, y1, minScore, all, found, deadline);
+    }
+  }
+
+  /**
+   * scores the positions x0 &lt;= x &lt; x1, y0 &lt;= y &lt; y1 in the calling thread and adds
+   * those scoring at least minScore (all == true) or the best of them to found, the rows
+   * after the deadline has passed are left out
+   */
+  static void scanRect(MatchSource source, MatchTarget target, int x0, int y0, int x1, int y1,
+          double minScore, boolean all, MatchBuffer found, Deadline deadline) {
+    int w = target.getWidth(), h = target.getHeight();
+    double best = minScore;
+    int bx = -1, by = -1;
+    Prescreen pre = Prescreen.of(target);
+    long start = pre == null ? 0 : System.nanoTime();
+    long skipped = 0, masked = 0;
+    int y = y0;
+    for (; y < y1 && !deadline.check(); y++) {
+      for (int x = x0; x < x1; x++) {
+        if (!source.allows(x, y)) {
+          masked++;
+          continue;
+        }
+        // a single find needs more than the best so far
+        if (pre != null && pre.rejects(source, x, y, all ? minScore : best)) {
+          skipped++;
+          continue;
+        }
+        double s = score(source, target, x, y);
+        if (all) {
+          if (s >= minScore) {
+            found.add(x, y, w, h, s);
+          }
+        } else if (s > best || (bx < 0 && s >= best)) {
+          best = s;
+          bx = x;
+          by = y;
+        }
+      }
+    }
+    if (!all && bx >= 0) {
+      found.add(bx, by, w, h, best);
+    }
+    if (pre != null) {
+      pre.count((long) (x1 - x0) * Math.max(0, y - y0) - masked, skipped,
+              System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @return the score of the target at position (x, y) of the source: -1 ... 1
+   */
+  public static double score(MatchSource source, MatchTarget target, int x, int y) {
+    int w = target.getWidth(), h = target.getHeight();
+    if (target.isMasked()) {
+      return maskedScore(source, target, x, y);
+    }
+    if (target.isPlain()) {
+      return plainScore(source, target, x, y);
+    }
+    double var = source.variance(x, y, w, h);
+    if (var < 1e-6) {
+      return 0;
+    }
+    double s = correlate(source.getPixels(), target, x, y) / Math.sqrt(var * target.getNorm2());
+    return s > 1 ? 1 : s;
+  }
+
+  /**
+   * score for a masked target: as score() (plainScore() for a plain one) over the opaque pixels
+   * only, the source sums are taken by row runs from the integral images
+   */
+  public static double maskedScore(MatchSource source, MatchTarget target, int x, int y) {
+    int nc = target.getColorChannels();
+    if (target.isPlain()) {
+      double n = target.getPixelCount();
+      double ssd = source.sqsum(x, y, target);
+      for (int c = 0; c < nc; c++) {
+        double m = target.getMean(c);
+        ssd += n * m * m - 2 * m * source.sum(c, x, y, target);
+      }
+      return 1 - Math.sqrt(Math.max(0, ssd) / (n * nc)) / 255;
+    }
+    double var = source.variance(x, y, target);
+    if (var < 1e-6) {
+      return 0;
+    }
+    PixelMat pixels = source.getPixels();
+    byte[] data = pixels.getData();
+    float[] tz = target.getZeroMean();
+    int[] runs = target.getRuns();
+    int[] offsets = target.getRunOffsets(pixels);
+    int ch = pixels.getChannels(), base = pixels.index(x, y);
+    double num = 0;
+    int ti = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      int si = base + offsets[i], len = runs[3 * i + 2] - runs[3 * i + 1];
+      double acc = 0;
+      if (nc == 3) {
+        for (int k = 0; k < len; k++, si += ch, ti += 3) {
+          acc += (data[si] & 0xff) * tz[ti]
+                  + (data[si + 1] & 0xff) * tz[ti + 1]
+                  + (data[si + 2] & 0xff) * tz[ti + 2];
+        }
+      } else {
+        for (int k = 0; k < len; k++, si += ch) {
+          for (int c = 0; c < nc; c++) {
+            acc += (data[si + c] & 0xff) * tz[ti++];
+          }
+        }
+      }
+      num += acc;
+    }
+    double s = num / Math.sqrt(var * target.getNorm2());
+    return s > 1 ? 1 : s;
+  }
+
+  /**
+   * @return sum of source pixel times zero mean target pixel at position (x, y)
+   */
+  public static double correlate(PixelMat source, MatchTarget target, int x, int y) {
+    byte[] data = source.getData();
+    float[] tz = target.getZeroMean();
+    int w = target.getWidth(), h = target.getHeight(), nc = target.getColorChannels();
+    int ch = source.getChannels();
+    double num = 0;
+    int ti = 0;
+    for (int r = 0; r < h; r++) {
+      int si = source.index(x, y + r);
+      double acc = 0;
+      if (nc == 3) {
+        for (int c = 0; c < w; c++, si += ch, ti += 3) {
+          acc += (data[si] & 0xff) * tz[ti]
+                  + (data[si + 1] & 0xff) * tz[ti + 1]
+                  + (data[si + 2] & 0xff) * tz[ti + 2];
+        }
+      } else {
+        for (int c = 0; c < w; c++, si += ch) {
+          for (int k = 0; k < nc; k++) {
+            acc += (data[si + k] & 0xff) * tz[ti++];
+          }
+        }
+      }
+      num += acc;
+    }
+    return num;
+  }
+
+  /**
+   * score for a plain color target: 1 - root mean square difference / 255
+   */
+  public static double plainScore(MatchSource source, MatchTarget target, int x, int y) {
+    int w = target.getWidth(), h = target.getHeight(), nc = target.getColorChannels();
+    double n = (double) w * h;
+    double ssd = source.sqsum(x, y, w, h);
+    for (int c = 0; c < nc; c++) {
+      double m = target.getMean(c);
+      ssd += n * m * m - 2 * m * source.sum(c, x, y, w, h);
+    }
+    return 1 - Math.sqrt(Math.max(0, ssd) / (n * nc)) / 255;
+  }
+}
@@ -8,35 +8,66 @@
 
 package org.sikuli.basics.proxies;
 
-public class Mat {
+import java.io.Closeable;
+
+public class Mat implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_Mat(cPtr);
+    }
+  };
+  private PixelMat pixels = null;
 
   protected Mat(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(Mat obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_Mat(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
+    // the frame is gone, so are the integral images prepared for it
+    MatchSource.release(pixels);
+  }
+
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
   }
 
   public Mat() {
     this(VisionProxyJNI.new_Mat(), true);
   }
 
+  /**
+   * @return the pixels this Mat was created from (Vision.createMat()), null if not known (e.g.
+   * created while the native matcher was selected)
+   */
+  public PixelMat getPixels() {
+    return pixels;
+  }
+
+  public void setPixels(PixelMat pixels) {
+    this.pixels = pixels;
+  }
+
 }
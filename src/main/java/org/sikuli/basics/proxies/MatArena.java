@@ -0,0 +1,244 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import org.sikuli.basics.Settings;
+
+/**
+ * frames of the same size (e.g. a screen or region captured again and again) reused instead of
+ * new pixel buffers for each capture<br />
+ * a frame is borrowed, filled (load() or getData()), used through getMat() (or getPixels() for
+ * the Java matchers, e.g. a GRAY frame) and given back with release() or close()<br />
+ * this is Java side pooling only: the native library cannot refill a Mat, so getMat() creates
+ * a native Mat (a copy of the pixels) for each change of the frame, it is deleted with the
+ * next change (getData(), load()) or when the frame is released (idle frames hold no native
+ * memory)<br />
+ * idle frames are kept up to Settings.MatArenaFrames per size and Settings.MatArenaSize (MB)
+ * in total, all methods are thread safe
+ */
+public class MatArena {
+
+  private static final Map<String, ArrayDeque<Frame>> idle = new HashMap<String, ArrayDeque<Frame>>();
+  private static long idleBytes = 0;
+  private static long borrowed = 0;
+  private static long reused = 0;
+  private static long discarded = 0;
+
+  /**
+   * a frame of rows x cols pixels with channels bytes each
+   */
+  public static class Frame implements Closeable {
+
+    private final int rows, cols, channels;
+    private final String key;
+    private final byte[] data;
+    private final PixelMat pixels;
+    private Mat mat = null;
+    private boolean inUse = false;
+
+    private Frame(int rows, int cols, int channels) {
+      this.rows = rows;
+      this.cols = cols;
+      this.channels = channels;
+      key = keyOf(rows, cols, channels);
+      data = new byte[rows * cols * channels];
+      pixels = new PixelMat(cols, rows, channels, data);
+    }
+
+    public int getRows() {
+      return rows;
+    }
+
+    public int getCols() {
+      return cols;
+    }
+
+    public int getChannels() {
+      return channels;
+    }
+
+    /**
+     * @return the pixels to be filled by the caller (content of the previous use)
+     */
+    public byte[] getData() {
+      changed();
+      return data;
+    }
+
+    /**
+     * fills the frame with the pixels of img (RGBA or GRAY frame of the image's size)
+     */
+    public Frame load(BufferedImage img) {
+      if (img.getWidth() != cols || img.getHeight() != rows
+              || (channels != PixelMat.RGBA && channels != PixelMat.GRAY)) {
+        throw new IllegalArgumentException("MatArena: image does not fit " + this);
+      }
+      if (channels == PixelMat.GRAY) {
+        OpenCV.convertBufferedImageToGray(img, data);
+      } else {
+        OpenCV.convertBufferedImageToByteArray(img, data);
+      }
+      changed();
+      return this;
+    }
+
+    // the pixels are about to change: what was prepared for the old ones is dropped, the Mat
+    // holds a copy of them and is deleted
+    private synchronized void changed() {
+      MatchSource.release(pixels);
+      if (mat != null) {
+        mat.delete();
+        mat = null;
+      }
+    }
+
+    /**
+     * @return the current pixels for the Java matchers (no native Mat needed, as for a GRAY
+     * frame, that the native library cannot take)
+     */
+    public PixelMat getPixels() {
+      return pixels;
+    }
+
+    /**
+     * @return a Mat with a copy of the current pixels (RGBA frames only), created again after
+     * each change, valid until the frame changes or is released
+     */
+    public synchronized Mat getMat() {
+      if (channels != PixelMat.RGBA) {
+        throw new IllegalStateException("MatArena: no native Mat for " + this);
+      }
+      if (mat == null) {
+        // the pixels of the frame are set below (no Java copy)
+        mat = Vision.createMat(rows, cols, data, true);
+        mat.setPixels(pixels);
+      }
+      return mat;
+    }
+
+    /**
+     * @return bytes held by the frame (Java and, while it has a Mat, native)
+     */
+    public synchronized long footprint() {
+      return mat == null ? data.length : 2L * data.length;
+    }
+
+    /**
+     * gives the frame back to the arena (as MatArena.release())
+     */
+    @Override
+    public void close() {
+      release(this);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Frame %dx%dx%d", cols, rows, channels);
+    }
+  }
+
+  private static String keyOf(int rows, int cols, int channels) {
+    return rows + "x" + cols + "x" + channels;
+  }
+
+  /**
+   * @return an idle frame of this size or a new one
+   */
+  public static Frame borrow(int rows, int cols, int channels) {
+    synchronized (MatArena.class) {
+      borrowed++;
+      ArrayDeque<Frame> frames = idle.get(keyOf(rows, cols, channels));
+      Frame f = frames == null ? null : frames.pollLast();
+      if (f != null) {
+        reused++;
+        idleBytes -= f.footprint();
+        f.inUse = true;
+        return f;
+      }
+    }
+    Frame f = new Frame(rows, cols, channels);
+    f.inUse = true;
+    return f;
+  }
+
+  /**
+   * @return an RGBA frame filled with the pixels of img
+   */
+  public static Frame borrow(BufferedImage img) {
+    return borrow(img.getHeight(), img.getWidth(), PixelMat.RGBA).load(img);
+  }
+
+  /**
+   * gives the frame back, its Mat is deleted (it must not be used any more)<br />
+   * a frame exceeding the limits is dropped
+   */
+  public static void release(Frame f) {
+    synchronized (MatArena.class) {
+      if (!f.inUse) {
+        return;
+      }
+      f.inUse = false;
+      f.changed();
+      ArrayDeque<Frame> frames = idle.get(f.key);
+      if ((frames == null || frames.size() < Settings.MatArenaFrames)
+              && idleBytes + f.footprint() <= (long) Settings.MatArenaSize * 1024 * 1024) {
+        if (frames == null) {
+          frames = new ArrayDeque<Frame>();
+          idle.put(f.key, frames);
+        }
+        frames.addLast(f);
+        idleBytes += f.footprint();
+        return;
+      }
+      discarded++;
+    }
+  }
+
+  /**
+   * drops all idle frames (they hold no native memory)
+   */
+  public static synchronized void clear() {
+    idle.clear();
+    idleBytes = 0;
+  }
+
+  public static synchronized int getIdleFrames() {
+    int n = 0;
+    for (ArrayDeque<Frame> q : idle.values()) {
+      n += q.size();
+    }
+    return n;
+  }
+
+  public static synchronized long getIdleBytes() {
+    return idleBytes;
+  }
+
+  public static synchronized long getBorrowed() {
+    return borrowed;
+  }
+
+  public static synchronized long getReused() {
+    return reused;
+  }
+
+  public static synchronized long getDiscarded() {
+    return discarded;
+  }
+
+  public static synchronized void resetCounters() {
+    borrowed = reused = discarded = 0;
+  }
+
+  public static synchronized String getStatistics() {
+    return String.format("MatArena: %d idle frames (%.1f MB) borrowed: %d reused: %d discarded: %d",
+            getIdleFrames(), idleBytes / 1048576.0, borrowed, reused, discarded);
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.Arrays;
+
+/**
+ * growable list of matches (x, y, w, h, score and the scale of the target, 1 if not scaled)
+ * kept in primitive arrays<br />
+ * this is what the Java matchers produce, toFindResults() converts to the native FindResults
+ */
+public class MatchBuffer {
+
+  private int[] xs;
+  private int[] ys;
+  private int[] ws;
+  private int[] hs;
+  private double[] scores;
+  private double[] scales;
+  private int size = 0;
+  private boolean partial = false;
+
+  public MatchBuffer() {
+    this(16);
+  }
+
+  public MatchBuffer(int capacity) {
+    capacity = Math.max(1, capacity);
+    xs = new int[capacity];
+    ys = new int[capacity];
+    ws = new int[capacity];
+    hs = new int[capacity];
+    scores = new double[capacity];
+    scales = new double[capacity];
+  }
+
+  /**
+   * @param boxes x, y, w, h of match i at 4 * i
+   * @param scores score of match i at i
+   * @param n number of matches
+   */
+  public MatchBuffer(int[] boxes, double[] scores, int n) {
+    this(n);
+    for (int i = 0; i < n; i++) {
+      add(boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3], scores[i]);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+    partial = false;
+  }
+
+  /**
+   * @return true if the search stopped at its deadline (FindOptions.setDeadline()): the matches
+   * are the best found in the part searched
+   */
+  public boolean isPartial() {
+    return partial;
+  }
+
+  public void setPartial(boolean partial) {
+    this.partial = partial;
+  }
+
+  public void add(int x, int y, int w, int h, double score) {
+    add(x, y, w, h, score, 1);
+  }
+
+  /**
+   * @param scale the scale of the target matched (multi-scale search)
+   */
+  public void add(int x, int y, int w, int h, double score, double scale) {
+    if (size == xs.length) {
+      grow(size * 2);
+    }
+    xs[size] = x;
+    ys[size] = y;
+    ws[size] = w;
+    hs[size] = h;
+    scores[size] = score;
+    scales[size] = scale;
+    size++;
+  }
+
+  public void addAll(MatchBuffer other) {
+    if (size + other.size > xs.length) {
+      grow(Math.max(size + other.size, size * 2));
+    }
+    System.arraycopy(other.xs, 0, xs, size, other.size);
+    System.arraycopy(other.ys, 0, ys, size, other.size);
+    System.arraycopy(other.ws, 0, ws, size, other.size);
+    System.arraycopy(other.hs, 0, hs, size, other.size);
+    System.arraycopy(other.scores, 0, scores, size, other.size);
+    System.arraycopy(other.scales, 0, scales, size, other.size);
+    size += other.size;
+    partial |= other.partial;
+  }
+
+  private void grow(int capacity) {
+    xs = Arrays.copyOf(xs, capacity);
+    ys = Arrays.copyOf(ys, capacity);
+    ws = Arrays.copyOf(ws, capacity);
+    hs = Arrays.copyOf(hs, capacity);
+    scores = Arrays.copyOf(scores, capacity);
+    scales = Arrays.copyOf(scales, capacity);
+  }
+
+  public int getX(int i) {
+    return xs[i];
+  }
+
+  public int getY(int i) {
+    return ys[i];
+  }
+
+  public int getW(int i) {
+    return ws[i];
+  }
+
+  public int getH(int i) {
+    return hs[i];
+  }
+
+  public double getScore(int i) {
+    return scores[i];
+  }
+
+  /**
+   * @return the scale of the target matched (1 if not scaled)
+   */
+  public double getScale(int i) {
+    return scales[i];
+  }
+
+  /**
+   * sets the scale of all matches (found with the target scaled by this)
+   */
+  public void setScale(double scale) {
+    Arrays.fill(scales, 0, size, scale);
+  }
+
+  /**
+   * @return index of the match with the highest score, -1 if empty
+   */
+  public int best() {
+    int best = -1;
+    for (int i = 0; i < size; i++) {
+      if (best < 0 || scores[i] > scores[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * sorts the matches by descending score (ties by position, top-left first)
+   */
+  public void sortByScore() {
+    int[] order = new int[size], merged = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    // bottom up merge sort of the indices (stable, no boxing)
+    for (int run = 1; run < size; run *= 2) {
+      for (int lo = 0; lo < size; lo += 2 * run) {
+        int mid = Math.min(lo + run, size), hi = Math.min(lo + 2 * run, size);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+          merged[k++] = before(order[j], order[i]) ? order[j++] : order[i++];
+        }
+        while (i < mid) {
+          merged[k++] = order[i++];
+        }
+        while (j < hi) {
+          merged[k++] = order[j++];
+        }
+      }
+      int[] t = order;
+      order = merged;
+      merged = t;
+    }
+    permute(order);
+  }
+
+  // true if match a is sorted before match b
+  private boolean before(int a, int b) {
+    if (scores[a] != scores[b]) {
+      return scores[a] > scores[b];
+    }
+    if (ys[a] != ys[b]) {
+      return ys[a] < ys[b];
+    }
+    return xs[a] < xs[b];
+  }
+
+  private void permute(int[] order) {
+    int[] nx = new int[xs.length], ny = new int[xs.length];
+    int[] nw = new int[xs.length], nh = new int[xs.length];
+    double[] ns = new double[xs.length], nsc = new double[xs.length];
+    for (int i = 0; i < size; i++) {
+      int j = order[i];
+      nx[i] = xs[j];
+      ny[i] = ys[j];
+      nw[i] = ws[j];
+      nh[i] = hs[j];
+      ns[i] = scores[j];
+      nsc[i] = scales[j];
+    }
+    xs = nx;
+    ys = ny;
+    ws = nw;
+    hs = nh;
+    scores = ns;
+    scales = nsc;
+  }
+
+  /**
+   * keeps the best scoring matches, that do not overlap a better one
+   *
+   * @param limit max number of matches to keep (0 or less: no limit)
+   */
+  public void suppressOverlaps(int limit) {
+    suppressOverlaps(0, limit);
+  }
+
+  /**
+   * non-maximum suppression: keeps the best scoring matches, whose intersection over union with
+   * each better match kept is at most maxOverlap (0: no overlap at all)<br />
+   * the matches kept are entered into a grid of cells as large as the largest match, so a match
+   * is only compared with those in its cell and the 8 around it (O(n log n) with the sort)
+   *
+   * @param maxOverlap 0 ... 1
+   * @param limit max number of matches to keep (0 or less: no limit)
+   */
+  public void suppressOverlaps(double maxOverlap, int limit) {
+    sortByScore();
+    if (size < 2) {
+      size = limit > 0 ? Math.min(size, limit) : size;
+      return;
+    }
+    Grid grid = new Grid(xs, ys, ws, hs, size);
+    int[] head = new int[grid.cols * grid.rows];
+    Arrays.fill(head, -1);
+    int[] next = new int[size];
+    int kept = 0;
+    for (int i = 0; i < size && (limit <= 0 || kept < limit); i++) {
+      int cx = grid.col(xs[i]), cy = grid.row(ys[i]);
+      boolean suppressed = false;
+      for (int gy = Math.max(0, cy - 1); gy <= Math.min(grid.rows - 1, cy + 1) && !suppressed; gy++) {
+        for (int gx = Math.max(0, cx - 1); gx <= Math.min(grid.cols - 1, cx + 1) && !suppressed; gx++) {
+          for (int k = head[gy * grid.cols + gx]; k >= 0 && !suppressed; k = next[k]) {
+            suppressed = overlap(i, k) > maxOverlap;
+          }
+        }
+      }
+      if (!suppressed) {
+        // i >= kept: the slots of the matches kept so far are not touched
+        xs[kept] = xs[i];
+        ys[kept] = ys[i];
+        ws[kept] = ws[i];
+        hs[kept] = hs[i];
+        scores[kept] = scores[i];
+        scales[kept] = scales[i];
+        next[kept] = head[cy * grid.cols + cx];
+        head[cy * grid.cols + cx] = kept;
+        kept++;
+      }
+    }
+    size = kept;
+  }
+
+  /**
+   * @return intersection over union of the matches i and k (0 if they do not overlap)
+   */
+  public double overlap(int i, int k) {
+    long iw = Math.min(xs[i] + ws[i], xs[k] + ws[k]) - Math.max(xs[i], xs[k]);
+    long ih = Math.min(ys[i] + hs[i], ys[k] + hs[k]) - Math.max(ys[i], ys[k]);
+    if (iw <= 0 || ih <= 0) {
+      return 0;
+    }
+    double inter = (double) iw * ih;
+    return inter / ((double) ws[i] * hs[i] + (double) ws[k] * hs[k] - inter);
+  }
+
+  /**
+   * cells as large as the largest of n boxes (larger, if the boxes are spread wide)
+   * over the positions x, y
+   */
+  static class Grid {
+
+    final int x0, y0, cell, cols, rows;
+
+    Grid(int[] xs, int[] ys, int[] ws, int[] hs, int n) {
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, size = 1;
+      for (int i = 0; i < n; i++) {
+        minX = Math.min(minX, xs[i]);
+        minY = Math.min(minY, ys[i]);
+        maxX = Math.max(maxX, xs[i]);
+        maxY = Math.max(maxY, ys[i]);
+        size = Math.max(size, Math.max(ws[i], hs[i]));
+      }
+      // not more than about 4 cells per box
+      double area = ((double) maxX - minX + 1) * ((double) maxY - minY + 1);
+      size = (int) Math.max(size, Math.ceil(Math.sqrt(area / (4.0 * Math.max(1, n)))));
+      x0 = minX;
+      y0 = minY;
+      cell = size;
+      cols = (int) (((long) maxX - minX) / size + 1);
+      rows = (int) (((long) maxY - minY) / size + 1);
+    }
+
+    int col(int x) {
+      return (int) Math.min(cols - 1, Math.max(0, ((long) x - x0) / cell));
+    }
+
+    int row(int y) {
+      return (int) Math.min(rows - 1, Math.max(0, ((long) y - y0) / cell));
+    }
+  }
+
+  /**
+   * @return a spatial index of the matches for queries by rectangle and point (the matches must
+   * not be changed while it is used)
+   */
+  public MatchIndex index() {
+    return new MatchIndex(this);
+  }
+
+  /**
+   * shifts all matches by (dx, dy)
+   */
+  public void translate(int dx, int dy) {
+    for (int i = 0; i < size; i++) {
+      xs[i] += dx;
+      ys[i] += dy;
+    }
+  }
+
+  /**
+   * @return a cursor, that reads the matches in place (no object per match)
+   */
+  public MatchCursor cursor() {
+    return new MatchCursor(this);
+  }
+
+  /**
+   * @return the matches as native FindResults, the scales and the partial flag are kept on the
+   * Java side (FindResult.getScale(), FindResults.isPartial())
+   */
+  public FindResults toFindResults() {
+    FindResults results = new FindResults();
+    boolean scaled = false;
+    for (int i = 0; i < size; i++) {
+      results.add(new FindResult(xs[i], ys[i], ws[i], hs[i], scores[i]));
+      scaled |= scales[i] != 1;
+    }
+    if (scaled) {
+      results.setScales(Arrays.copyOf(scales, size));
+    }
+    results.setPartial(partial);
+    return results;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("MatchBuffer(" + size + (partial ? " partial)" : ")"));
+    for (int i = 0; i < size && i < 10; i++) {
+      sb.append(String.format(" [%d,%d %dx%d %.3f", xs[i], ys[i], ws[i], hs[i], scores[i]));
+      sb.append(scales[i] == 1 ? "]" : String.format(" x%.2f]", scales[i]));
+    }
+    return sb.toString();
+  }
+}
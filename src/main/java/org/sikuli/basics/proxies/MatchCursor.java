@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+/**
+ * reads the matches of a MatchBuffer one after the other without creating an object per match<br />
+ * usage: MatchCursor c = matches.cursor(); while (c.next()) { c.getX() ... }
+ */
+public class MatchCursor {
+
+  private final MatchBuffer matches;
+  private int current = -1;
+
+  public MatchCursor(MatchBuffer matches) {
+    this.matches = matches;
+  }
+
+  /**
+   * moves to the next match
+   *
+   * @return false if there is none
+   */
+  public boolean next() {
+    if (current < matches.size()) {
+      current++;
+    }
+    return current < matches.size();
+  }
+
+  /**
+   * back to before the first match
+   */
+  public void reset() {
+    current = -1;
+  }
+
+  public int getIndex() {
+    return current;
+  }
+
+  public int getX() {
+    return matches.getX(current);
+  }
+
+  public int getY() {
+    return matches.getY(current);
+  }
+
+  public int getW() {
+    return matches.getW(current);
+  }
+
+  public int getH() {
+    return matches.getH(current);
+  }
+
+  public double getScore() {
+    return matches.getScore(current);
+  }
+
+  /**
+   * @return the scale of the target matched (1 if not scaled)
+   */
+  public double getScale() {
+    return matches.getScale(current);
+  }
+}
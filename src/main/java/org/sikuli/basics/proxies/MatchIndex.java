@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.Arrays;
+
+/**
+ * spatial index of the matches of a MatchBuffer (MatchBuffer.index()): the match centers are
+ * sorted into a grid of cells (primitive arrays, built in O(n)), so the matches within a
+ * rectangle and the match nearest to a point are found by looking at the cells around only
+ */
+public class MatchIndex {
+
+  private final MatchBuffer matches;
+  private final MatchBuffer.Grid grid;
+  // the matches of cell c are items[start[c]] ... items[start[c + 1] - 1]
+  private final int[] start;
+  private final int[] items;
+  private final int[] cxs, cys;
+
+  MatchIndex(MatchBuffer matches) {
+    this.matches = matches;
+    int n = matches.size();
+    cxs = new int[n];
+    cys = new int[n];
+    int[] ws = new int[n], hs = new int[n];
+    for (int i = 0; i < n; i++) {
+      cxs[i] = matches.getX(i) + matches.getW(i) / 2;
+      cys[i] = matches.getY(i) + matches.getH(i) / 2;
+      ws[i] = matches.getW(i);
+      hs[i] = matches.getH(i);
+    }
+    grid = n == 0 ? null : new MatchBuffer.Grid(cxs, cys, ws, hs, n);
+    int cells = n == 0 ? 0 : grid.cols * grid.rows;
+    start = new int[cells + 1];
+    items = new int[n];
+    int[] cellOf = new int[n];
+    for (int i = 0; i < n; i++) {
+      cellOf[i] = grid.row(cys[i]) * grid.cols + grid.col(cxs[i]);
+      start[cellOf[i] + 1]++;
+    }
+    for (int c = 0; c < cells; c++) {
+      start[c + 1] += start[c];
+    }
+    int[] fill = Arrays.copyOf(start, cells);
+    for (int i = 0; i < n; i++) {
+      items[fill[cellOf[i]]++] = i;
+    }
+  }
+
+  public MatchBuffer getMatches() {
+    return matches;
+  }
+
+  /**
+   * @return the matches lying completely within the rectangle (x, y, w, h), in the order of the
+   * indexed matches (best first, if sorted by score)
+   */
+  public MatchBuffer within(int x, int y, int w, int h) {
+    MatchBuffer found = new MatchBuffer();
+    if (grid == null || w <= 0 || h <= 0) {
+      return found;
+    }
+    int[] hits = new int[items.length];
+    int n = 0;
+    for (int gy = grid.row(y); gy <= grid.row(y + h - 1); gy++) {
+      for (int gx = grid.col(x); gx <= grid.col(x + w - 1); gx++) {
+        int c = gy * grid.cols + gx;
+        for (int k = start[c]; k < start[c + 1]; k++) {
+          int i = items[k];
+          int mx = matches.getX(i), my = matches.getY(i);
+          if (mx >= x && my >= y && mx + matches.getW(i) <= x + w
+                  && my + matches.getH(i) <= y + h) {
+            hits[n++] = i;
+          }
+        }
+      }
+    }
+    Arrays.sort(hits, 0, n);
+    for (int k = 0; k < n; k++) {
+      int i = hits[k];
+      found.add(matches.getX(i), matches.getY(i), matches.getW(i), matches.getH(i),
+              matches.getScore(i), matches.getScale(i));
+    }
+    return found;
+  }
+
+  /**
+   * @return index (into getMatches()) of the match with its center nearest to (x, y), the first
+   * of equally near ones, -1 if there are no matches<br />
+   * the cells are searched in rings around the point, until no nearer match is possible
+   */
+  public int nearest(int x, int y) {
+    if (grid == null) {
+      return -1;
+    }
+    int px = grid.col(x), py = grid.row(y);
+    int best = -1;
+    long bestD = Long.MAX_VALUE;
+    int rings = Math.max(grid.cols, grid.rows);
+    for (int r = 0; r <= rings; r++) {
+      // a match in ring r is at least (r - 1) cells away
+      long minD = (long) Math.max(0, r - 1) * grid.cell;
+      if (best >= 0 && minD * minD > bestD) {
+        break;
+      }
+      for (int gy = py - r; gy <= py + r; gy++) {
+        if (gy < 0 || gy >= grid.rows) {
+          continue;
+        }
+        // all cells of the top and bottom rows of the ring, the two ends of the others
+        int step = gy == py - r || gy == py + r ? 1 : Math.max(1, 2 * r);
+        for (int gx = px - r; gx <= px + r; gx += step) {
+          if (gx < 0 || gx >= grid.cols) {
+            continue;
+          }
+          int c = gy * grid.cols + gx;
+          for (int k = start[c]; k < start[c + 1]; k++) {
+            int i = items[k];
+            long dx = cxs[i] - x, dy = cys[i] - y, d = dx * dx + dy * dy;
+            if (d < bestD || (d == bestD && i < best)) {
+              bestD = d;
+              best = i;
+            }
+          }
+        }
+      }
+    }
+    return best;
+  }
+}
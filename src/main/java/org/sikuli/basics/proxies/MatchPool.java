@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the worker threads shared by the Java matchers<br />
+ * number of threads: -Dsikuli.MatcherThreads=n (default: number of processors)<br />
+ * the caller of invokeAll() works on the tasks too, so nested invokeAll() cannot dead lock
+ */
+public class MatchPool {
+
+  private static int threads = Integer.getInteger("sikuli.MatcherThreads",
+          Runtime.getRuntime().availableProcessors());
+  private static ExecutorService pool = null;
+
+  public static int getThreads() {
+    return Math.max(1, threads);
+  }
+
+  /**
+   * to be used before the first parallel search
+   *
+   * @param n number of threads (1: everything runs in the calling thread)
+   */
+  public static synchronized void setThreads(int n) {
+    threads = Math.max(1, n);
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      final AtomicInteger count = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(Math.max(1, getThreads() - 1),
+              new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "SikuliMatcher-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * runs the tasks in parallel and returns when all are done<br />
+   * a RuntimeException thrown by a task is rethrown here
+   */
+  public static void invokeAll(List<? extends Runnable> tasks) {
+    if (tasks.size() < 2 || getThreads() < 2) {
+      for (Runnable task : tasks) {
+        task.run();
+      }
+      return;
+    }
+    List<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>(tasks.size());
+    ExecutorService exec = getPool();
+    for (Runnable task : tasks) {
+      FutureTask<Object> f = new FutureTask<Object>(task, null);
+      futures.add(f);
+    }
+    for (int i = 1; i < futures.size(); i++) {
+      exec.execute(futures.get(i));
+    }
+    // tasks already taken by a worker are skipped by run()
+    for (FutureTask<Object> f : futures) {
+      f.run();
+    }
+    for (FutureTask<Object> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("MatchPool: interrupted", ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
+  /**
+   * splits n items into chunks for about 4 chunks per thread
+   *
+   * @return number of chunks (at least 1)
+   */
+  public static int chunks(int n, int minChunk) {
+    int c = Math.min(getThreads() * 4, n / Math.max(1, minChunk));
+    return Math.max(1, c);
+  }
+}
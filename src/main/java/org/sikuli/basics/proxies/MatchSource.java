@@ -0,0 +1,349 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * a source image prepared for template matching:<br />
+ * integral images of the color channels and of the squared pixel values,
+ * so mean and variance under any window are available in constant time<br />
+ * of() keeps the prepared source with the pixels of a frame, so all searches on that frame (in
+ * any region, see region()) share it, until release() (e.g. when the Mat is deleted), as well
+ * as its gray version (getGray())
+ */
+public class MatchSource {
+
+  private static final String GRAY = "gray";
+
+  private final PixelMat pixels;
+  private final int nc;
+  private final int iw;
+  // position of this in the integral images (a region shares those of its frame)
+  private final int ox, oy;
+  // per color channel sums, int arithmetic may wrap: differences of 4 corners are still exact
+  private final int[][] sums;
+  // sum over all color channels of the squared values
+  private final long[] sqsums;
+  private MatchSource halved = null;
+  private final Map<String, Object> attached = new HashMap<String, Object>();
+  // the source owning the integral images (this if not a region)
+  private final MatchSource frame;
+  // with a color filter: the positions to be scored and the source without the filter
+  private final ColorFilter.Mask mask;
+  private final MatchSource unmasked;
+
+  public MatchSource(PixelMat pixels) {
+    this.pixels = pixels;
+    nc = colorChannels(pixels);
+    int w = pixels.getWidth(), h = pixels.getHeight(), ch = pixels.getChannels();
+    iw = w + 1;
+    ox = oy = 0;
+    frame = this;
+    mask = null;
+    unmasked = null;
+    sums = new int[nc][iw * (h + 1)];
+    sqsums = new long[iw * (h + 1)];
+    byte[] data = pixels.getData();
+    int[] rowSum = new int[nc];
+    for (int y = 0; y < h; y++) {
+      for (int c = 0; c < nc; c++) {
+        rowSum[c] = 0;
+      }
+      long rowSq = 0;
+      int si = pixels.index(0, y);
+      int ii = (y + 1) * iw + 1;
+      for (int x = 0; x < w; x++, si += ch, ii++) {
+        for (int c = 0; c < nc; c++) {
+          int v = data[si + c] & 0xff;
+          rowSum[c] += v;
+          rowSq += v * v;
+          sums[c][ii] = sums[c][ii - iw] + rowSum[c];
+        }
+        sqsums[ii] = sqsums[ii - iw] + rowSq;
+      }
+    }
+  }
+
+  private MatchSource(MatchSource frame, int x, int y, int w, int h) {
+    pixels = frame.pixels.view(x, y, w, h);
+    nc = frame.nc;
+    iw = frame.iw;
+    sums = frame.sums;
+    sqsums = frame.sqsums;
+    ox = frame.ox + x;
+    oy = frame.oy + y;
+    this.frame = frame.frame;
+    mask = frame.mask;
+    unmasked = null;
+  }
+
+  private MatchSource(MatchSource source, ColorFilter.Mask mask) {
+    pixels = source.pixels;
+    nc = source.nc;
+    iw = source.iw;
+    sums = source.sums;
+    sqsums = source.sqsums;
+    ox = source.ox;
+    oy = source.oy;
+    frame = source.frame;
+    this.mask = mask;
+    unmasked = source.getUnmasked();
+  }
+
+  /**
+   * @return the prepared source of these pixels, made with the first call and kept with the
+   * pixels for further searches until release()
+   */
+  public static MatchSource of(PixelMat pixels) {
+    synchronized (pixels) {
+      if (pixels.prepared == null) {
+        pixels.prepared = new MatchSource(pixels);
+      }
+      return pixels.prepared;
+    }
+  }
+
+  /**
+   * drops the prepared source kept with the pixels (to be used when the pixels are released
+   * or changed)
+   */
+  public static void release(PixelMat pixels) {
+    if (pixels != null) {
+      synchronized (pixels) {
+        pixels.prepared = null;
+      }
+    }
+  }
+
+  /**
+   * @return the rectangle (x, y, w, h) of this as a prepared source, that uses the integral
+   * images of this (nothing is computed)
+   */
+  public MatchSource region(int x, int y, int w, int h) {
+    return new MatchSource(this, x, y, w, h);
+  }
+
+  /**
+   * @return this with only the positions allowed by the mask to be scored (see allows())
+   */
+  MatchSource masked(ColorFilter.Mask mask) {
+    return new MatchSource(this, mask);
+  }
+
+  /**
+   * @return this without a color filter mask
+   */
+  MatchSource getUnmasked() {
+    return unmasked == null ? this : unmasked;
+  }
+
+  /**
+   * @return false if the color filter rules out a match at (x, y)
+   */
+  public boolean allows(int x, int y) {
+    return mask == null || mask.allows(x + ox, y + oy);
+  }
+
+  /**
+   * @return the source owning the integral images (this, if this is not a region)
+   */
+  public MatchSource getFrame() {
+    return frame;
+  }
+
+  /**
+   * @return x of this in getFrame()
+   */
+  public int getFrameX() {
+    return ox;
+  }
+
+  /**
+   * @return y of this in getFrame()
+   */
+  public int getFrameY() {
+    return oy;
+  }
+
+  /**
+   * @return number of channels that take part in matching (alpha is ignored)
+   */
+  public static int colorChannels(PixelMat pixels) {
+    return Math.min(3, pixels.getChannels());
+  }
+
+  public PixelMat getPixels() {
+    return pixels;
+  }
+
+  public int getColorChannels() {
+    return nc;
+  }
+
+  public int getWidth() {
+    return pixels.getWidth();
+  }
+
+  public int getHeight() {
+    return pixels.getHeight();
+  }
+
+  /**
+   * @return sum of channel c in the window (x, y, w, h)
+   */
+  public int sum(int c, int x, int y, int w, int h) {
+    int[] s = sums[c];
+    int a = (y + oy) * iw + x + ox, b = a + h * iw;
+    return s[b + w] - s[a + w] - s[b] + s[a];
+  }
+
+  /**
+   * @return sum of the squared values of all color channels in the window (x, y, w, h)
+   */
+  public long sqsum(int x, int y, int w, int h) {
+    int a = (y + oy) * iw + x + ox, b = a + h * iw;
+    return sqsums[b + w] - sqsums[a + w] - sqsums[b] + sqsums[a];
+  }
+
+  /**
+   * @return sum over the color channels of the squared deviations from the channel means
+   * in the window (x, y, w, h)
+   */
+  public double variance(int x, int y, int w, int h) {
+    double n = (double) w * h;
+    double var = sqsum(x, y, w, h);
+    for (int c = 0; c < nc; c++) {
+      double s = sum(c, x, y, w, h);
+      var -= s * s / n;
+    }
+    return var;
+  }
+
+  /**
+   * @return sum of channel c under the target at (x, y): its opaque pixels if masked (summed
+   * by row runs), otherwise the window
+   */
+  public int sum(int c, int x, int y, MatchTarget target) {
+    int[] runs = target.getRuns();
+    if (runs == null) {
+      return sum(c, x, y, target.getWidth(), target.getHeight());
+    }
+    int s = 0;
+    for (int i = 0; i < runs.length; i += 3) {
+      s += sum(c, x + runs[i + 1], y + runs[i], runs[i + 2] - runs[i + 1], 1);
+    }
+    return s;
+  }
+
+  /**
+   * @return sum of the squared values of all color channels under the target at (x, y)
+   */
+  public long sqsum(int x, int y, MatchTarget target) {
+    int[] runs = target.getRuns();
+    if (runs == null) {
+      return sqsum(x, y, target.getWidth(), target.getHeight());
+    }
+    long s = 0;
+    for (int i = 0; i < runs.length; i += 3) {
+      s += sqsum(x + runs[i + 1], y + runs[i], runs[i + 2] - runs[i + 1], 1);
+    }
+    return s;
+  }
+
+  /**
+   * @return as variance(x, y, w, h), but under the target at (x, y) (its opaque pixels if
+   * masked)
+   */
+  public double variance(int x, int y, MatchTarget target) {
+    if (!target.isMasked()) {
+      return variance(x, y, target.getWidth(), target.getHeight());
+    }
+    double n = target.getPixelCount();
+    double var = sqsum(x, y, target);
+    for (int c = 0; c < nc; c++) {
+      double s = sum(c, x, y, target);
+      var -= s * s / n;
+    }
+    return var;
+  }
+
+  /**
+   * @param level number of times halved (0: this)
+   * @return the prepared halved source, built once and kept for further searches
+   */
+  public MatchSource getLevel(int level) {
+    if (level <= 0) {
+      return this;
+    }
+    if (unmasked != null) {
+      // the color filter is applied at full resolution only
+      return unmasked.getLevel(level);
+    }
+    MatchSource half;
+    synchronized (this) {
+      if (halved == null) {
+        halved = new MatchSource(pixels.halve());
+      }
+      half = halved;
+    }
+    return half.getLevel(level - 1);
+  }
+
+  /**
+   * @return the prepared source of the gray pixels (this if it has one channel), the gray frame
+   * is made once and kept with the frame, a region maps to the same part of it
+   */
+  public MatchSource getGray() {
+    if (nc == 1) {
+      return this;
+    }
+    if (frame != this) {
+      MatchSource gray = frame.getGray().region(ox, oy, getWidth(), getHeight());
+      return mask == null ? gray : gray.masked(mask);
+    }
+    synchronized (this) {
+      MatchSource gray = (MatchSource) attached.get(GRAY);
+      if (gray == null) {
+        gray = new MatchSource(pixels.toGray());
+        attached.put(GRAY, gray);
+      }
+      return gray;
+    }
+  }
+
+  /**
+   * @return data derived from this by a search step (e.g. color histograms), null if not yet there
+   */
+  public Object getAttached(String key) {
+    if (unmasked != null) {
+      return unmasked.getAttached(key);
+    }
+    synchronized (this) {
+      return attached.get(key);
+    }
+  }
+
+  /**
+   * keeps data derived from this for further searches
+   */
+  public void setAttached(String key, Object value) {
+    if (unmasked != null) {
+      unmasked.setAttached(key, value);
+      return;
+    }
+    synchronized (this) {
+      attached.put(key, value);
+    }
+  }
+
+  /**
+   * @return estimated Java heap held by the integral images (of the frame for a region)
+   */
+  public long footprint() {
+    return (long) sqsums.length * (8 + 4 * nc);
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * a target image prepared for template matching:<br />
+ * color channels with their means removed (compact, row by row) and the resulting norm<br />
+ * a target with transparent pixels (alpha below OPAQUE) is masked: only its opaque pixels are
+ * kept (listed in getPoints() and as row runs in getRuns()) and matched, means and norm are those
+ * of the opaque pixels
+ */
+public class MatchTarget {
+
+  /**
+   * pixels with a lower alpha are left out of matching
+   */
+  public static final int OPAQUE = 128;
+  private static final String GRAY = "gray";
+  // where targets were found last, by their pixels (TargetCache.keyOf()), the most recent kept
+  private static final int LAST_HITS = 1000;
+  private static final Map<String, int[]> lastHits = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+      return size() > LAST_HITS;
+    }
+  };
+
+  private final PixelMat pixels;
+  private final int width;
+  private final int height;
+  private final int nc;
+  private final float[] zeroMean;
+  private final double[] means;
+  private final double norm2;
+  // masked: the alpha plane, the opaque pixels (y * width + x) and their row runs, otherwise null
+  private final PixelMat alpha;
+  private final int[] points;
+  private final int[] runs;
+  // start offsets of the runs into a source with this stride and channels
+  private int[] offsets = null;
+  private int offsetsStride = -1, offsetsChannels = -1;
+  private MatchTarget halved = null;
+  private final Map<String, Object> attached = new HashMap<String, Object>();
+  private String key = null;
+
+  public MatchTarget(PixelMat pixels) {
+    this(pixels, pixels.getChannels() == PixelMat.RGBA ? pixels.channel(3) : null);
+  }
+
+  /**
+   * @param alpha the transparency of the pixels (one channel), null: all opaque
+   */
+  private MatchTarget(PixelMat pixels, PixelMat alpha) {
+    this.pixels = pixels;
+    width = pixels.getWidth();
+    height = pixels.getHeight();
+    nc = MatchSource.colorChannels(pixels);
+    int ch = pixels.getChannels();
+    byte[] data = pixels.getData();
+    points = opaquePoints(alpha, width, height);
+    this.alpha = points == null ? null : alpha;
+    runs = points == null ? null : runsOf(points, width);
+    int count = points == null ? width * height : points.length;
+    means = new double[nc];
+    for (int i = 0; i < count; i++) {
+      int p = points == null ? i : points[i];
+      int si = pixels.index(p % width, p / width);
+      for (int c = 0; c < nc; c++) {
+        means[c] += data[si + c] & 0xff;
+      }
+    }
+    for (int c = 0; c < nc; c++) {
+      means[c] /= count;
+    }
+    zeroMean = new float[count * nc];
+    double nrm = 0;
+    int ti = 0;
+    for (int i = 0; i < count; i++) {
+      int p = points == null ? i : points[i];
+      int si = pixels.index(p % width, p / width);
+      for (int c = 0; c < nc; c++) {
+        float v = (float) ((data[si + c] & 0xff) - means[c]);
+        zeroMean[ti++] = v;
+        nrm += v * v;
+      }
+    }
+    norm2 = nrm;
+  }
+
+  /**
+   * @return the opaque pixels, null if all are opaque (or none: then all are matched)
+   */
+  private static int[] opaquePoints(PixelMat alpha, int w, int h) {
+    if (alpha == null) {
+      return null;
+    }
+    int count = 0;
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        if (alpha.get(x, y, 0) >= OPAQUE) {
+          count++;
+        }
+      }
+    }
+    if (count == w * h || count == 0) {
+      return null;
+    }
+    int[] opaque = new int[count];
+    int i = 0;
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        if (alpha.get(x, y, 0) >= OPAQUE) {
+          opaque[i++] = y * w + x;
+        }
+      }
+    }
+    return opaque;
+  }
+
+  /**
+   * @return the points joined to row runs: y, first x, last x + 1 per run
+   */
+  private static int[] runsOf(int[] points, int w) {
+    int[] r = new int[3 * points.length];
+    int n = 0;
+    for (int i = 0; i < points.length; i++) {
+      int y = points[i] / w, x = points[i] % w;
+      if (n > 0 && r[n - 3] == y && r[n - 1] == x) {
+        r[n - 1]++;
+      } else {
+        r[n++] = y;
+        r[n++] = x;
+        r[n++] = x + 1;
+      }
+    }
+    int[] compact = new int[n];
+    System.arraycopy(r, 0, compact, 0, n);
+    return compact;
+  }
+
+  public PixelMat getPixels() {
+    return pixels;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getColorChannels() {
+    return nc;
+  }
+
+  /**
+   * @return true if only the opaque pixels are matched (getPoints())
+   */
+  public boolean isMasked() {
+    return points != null;
+  }
+
+  /**
+   * @return the opaque pixels (y * width + x, row by row) of a masked target, null if not masked
+   */
+  public int[] getPoints() {
+    return points;
+  }
+
+  /**
+   * @return number of pixels matched (the opaque ones if masked)
+   */
+  public int getPixelCount() {
+    return points == null ? width * height : points.length;
+  }
+
+  /**
+   * @return the opaque pixels of a masked target as row runs (y, first x, last x + 1 per run, in
+   * the order of getPoints()), null if not masked
+   */
+  public int[] getRuns() {
+    return runs;
+  }
+
+  /**
+   * @return for a masked target: the index offsets of the runs' first pixels in source relative
+   * to the window's top left pixel (kept for further sources of the same layout)
+   */
+  public synchronized int[] getRunOffsets(PixelMat source) {
+    int stride = source.getStride(), ch = source.getChannels();
+    if (offsets == null || stride != offsetsStride || ch != offsetsChannels) {
+      int[] o = new int[runs.length / 3];
+      for (int i = 0; i < o.length; i++) {
+        o[i] = runs[3 * i] * stride + runs[3 * i + 1] * ch;
+      }
+      offsets = o;
+      offsetsStride = stride;
+      offsetsChannels = ch;
+    }
+    return offsets;
+  }
+
+  /**
+   * @return the color channel values minus their means, row by row, channels interleaved (of the
+   * opaque pixels only if masked)
+   */
+  public float[] getZeroMean() {
+    return zeroMean;
+  }
+
+  public double getMean(int c) {
+    return means[c];
+  }
+
+  /**
+   * @return sum of the squared deviations from the channel means
+   */
+  public double getNorm2() {
+    return norm2;
+  }
+
+  /**
+   * @return true if the target is (nearly) one plain color, where correlation is not defined
+   */
+  public boolean isPlain() {
+    return norm2 < 0.01 * getPixelCount() * nc;
+  }
+
+  /**
+   * @param level number of times halved (0: this)
+   * @return the prepared halved target, built once and kept for further searches
+   */
+  public MatchTarget getLevel(int level) {
+    if (level <= 0) {
+      return this;
+    }
+    MatchTarget half;
+    synchronized (this) {
+      if (halved == null) {
+        halved = new MatchTarget(pixels.halve(), alpha == null ? null : alpha.halve());
+      }
+      half = halved;
+    }
+    return half.getLevel(level - 1);
+  }
+
+  /**
+   * @return the prepared target of the gray pixels (this if it has one channel), made once
+   */
+  public MatchTarget getGray() {
+    if (nc == 1) {
+      return this;
+    }
+    synchronized (this) {
+      MatchTarget gray = (MatchTarget) attached.get(GRAY);
+      if (gray == null) {
+        gray = new MatchTarget(pixels.toGray(), alpha);
+        attached.put(GRAY, gray);
+      }
+      return gray;
+    }
+  }
+
+  /**
+   * @return the prepared target resized by scale (this for 1), made once per scale, a mask is
+   * resized with the pixels
+   */
+  public MatchTarget getScaled(double scale) {
+    if (scale == 1) {
+      return this;
+    }
+    String key = "scale:" + scale;
+    synchronized (this) {
+      MatchTarget scaled = (MatchTarget) attached.get(key);
+      if (scaled == null) {
+        int w = Math.max(1, (int) Math.round(width * scale));
+        int h = Math.max(1, (int) Math.round(height * scale));
+        scaled = new MatchTarget(pixels.resize(w, h), alpha == null ? null : alpha.resize(w, h));
+        attached.put(key, scaled);
+      }
+      return scaled;
+    }
+  }
+
+  /**
+   * @return data derived from this by a search step (e.g. FFT spectra), null if not yet there
+   */
+  public synchronized Object getAttached(String key) {
+    return attached.get(key);
+  }
+
+  /**
+   * keeps data derived from this for further searches
+   */
+  public synchronized void setAttached(String key, Object value) {
+    attached.put(key, value);
+  }
+
+  /**
+   * @return x, y where a target with these pixels was found last (in the frame searched), null
+   * if not yet found, kept for any MatchTarget made of the same pixels
+   */
+  public int[] getLastHit() {
+    String k = getKey();
+    synchronized (lastHits) {
+      return lastHits.get(k);
+    }
+  }
+
+  public void setLastHit(int x, int y) {
+    String k = getKey();
+    synchronized (lastHits) {
+      lastHits.put(k, new int[]{x, y});
+    }
+  }
+
+  private synchronized String getKey() {
+    if (key == null) {
+      key = TargetCache.keyOf(pixels);
+    }
+    return key;
+  }
+
+  /**
+   * @return estimated Java heap held by this prepared target (with its levels and spectra)
+   */
+  public synchronized long footprint() {
+    long n = (long) zeroMean.length * 4;
+    if (points != null) {
+      n += 4L * (points.length + runs.length) + alpha.getData().length;
+    }
+    for (Object a : attached.values()) {
+      if (a instanceof float[][]) {
+        for (float[] f : (float[][]) a) {
+          n += 4L * f.length;
+        }
+      } else if (a instanceof MatchTarget) {
+        MatchTarget gray = (MatchTarget) a;
+        n += gray.getPixels().getData().length + gray.footprint();
+      }
+    }
+    if (halved != null) {
+      n += halved.getPixels().getData().length + halved.footprint();
+    }
+    return n;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * selects the IMatcher used by Vision.find()<br />
+ * default: -Dsikuli.Matcher=name, if not given or not found: native<br />
+ * the Java pixels of a Mat are only kept while another matcher than the native one is selected,
+ * Mats created before are searched by the native matcher<br />
+ * a matcher that is no ThreadSafeMatcher is returned wrapped, so its searches run one at a
+ * time (e.g. from Vision.find(), AsyncVision and ScanScheduler at once)
+ */
+public class Matchers {
+
+  private static IMatcher current = null;
+  private static IMatcher nativeMatcher = new NativeMatcher();
+
+  /**
+   * @return the matcher currently used by Vision.find()
+   */
+  public static synchronized IMatcher get() {
+    if (current == null) {
+      current = lookup(System.getProperty("sikuli.Matcher", NativeMatcher.NAME));
+      current = current == null ? nativeMatcher : SerializedMatcher.of(current);
+    }
+    return current;
+  }
+
+  /**
+   * @return the matcher backed by the native library
+   */
+  public static IMatcher getNative() {
+    return nativeMatcher;
+  }
+
+  /**
+   * switches Vision.find() to the matcher with the given name
+   *
+   * @param name as returned by IMatcher.getName()
+   * @return the selected matcher, null if there is none with that name (selection not changed)
+   */
+  public static synchronized IMatcher select(String name) {
+    IMatcher m = lookup(name);
+    if (m != null) {
+      current = SerializedMatcher.of(m);
+      m = current;
+    }
+    return m;
+  }
+
+  /**
+   * switches Vision.find() to the given matcher (wrapped, if it is no ThreadSafeMatcher)
+   */
+  public static synchronized void select(IMatcher matcher) {
+    current = matcher == null ? nativeMatcher : SerializedMatcher.of(matcher);
+  }
+
+  private static IMatcher lookup(String name) {
+    if (name == null) {
+      return null;
+    }
+    if (NativeMatcher.NAME.equalsIgnoreCase(name)) {
+      return nativeMatcher;
+    }
+    ServiceLoader<IMatcher> loader = ServiceLoader.load(IMatcher.class);
+    Iterator<IMatcher> matcherIterator = loader.iterator();
+    while (matcherIterator.hasNext()) {
+      IMatcher m = matcherIterator.next();
+      if (m.getName().equalsIgnoreCase(name)) {
+        return m;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the search implemented in the native library VisionProxy<br />
+ * the native searches (Vision.findNative(), Vision.findChanges()) run one at a time, from any
+ * thread, as the native library may not be thread safe
+ */
+public class NativeMatcher implements ThreadSafeMatcher {
+
+  public static final String NAME = "native";
+  // held by every native search
+  static final Object LOCK = new Object();
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  /**
+   * @throws IllegalArgumentException for a region of a source without Java pixels (the native
+   * library cannot take a part of a Mat)
+   */
+  @Override
+  public FindResults find(FindInput q) {
+    if (q.getOptions().hasRegion()) {
+      if (q.getSourcePixels() == null) {
+        throw new IllegalArgumentException("NativeMatcher: a region needs the pixels of the source"
+                + " (Mat.setPixels() before the FindInput is made, or a MatArena frame)");
+      }
+      return findInRegion(q.getSourcePixels(), q);
+    }
+    return Vision.findNative(q);
+  }
+
+  /**
+   * the native results are copied to Java (FindResults.export(), per result) and released at once
+   */
+  @Override
+  public MatchBuffer findMatches(FindInput q) {
+    FindResults results = find(q);
+    MatchBuffer found = results.toMatchBuffer();
+    results.delete();
+    return found;
+  }
+
+  /**
+   * the native library knows no regions: searches a copy of the region
+   */
+  private static FindResults findInRegion(PixelMat source, FindInput q) {
+    FindOptions options = q.getOptions();
+    int[] r = options.getRegion(source.getWidth(), source.getHeight());
+    if (r[2] == 0 || r[3] == 0) {
+      return new FindResults();
+    }
+    Mat part = Vision.createMat(r[3], r[2], source.copy(r[0], r[1], r[2], r[3]), true);
+    FindInput qr = new FindInput(part, q);
+    FindResults results = Vision.findNative(qr);
+    qr.delete();
+    part.delete();
+    if (options.isResultsInFrame()) {
+      for (int i = 0; i < results.size(); i++) {
+        FindResult m = results.get(i);
+        m.setX(m.getX() + r[0]);
+        m.setY(m.getY() + r[1]);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * one after the other, the thread safety of the native library is not known
+   */
+  @Override
+  public List<FindResults> findMany(Mat source, List<FindInput> targets) {
+    List<FindResults> results = new ArrayList<FindResults>(targets.size());
+    for (FindInput q : targets) {
+      FindInput qs = new FindInput(source, q);
+      results.add(find(qs));
+      qs.delete();
+    }
+    return results;
+  }
+}
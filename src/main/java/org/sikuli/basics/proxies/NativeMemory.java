@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * keeps track of the native objects owned by the proxies of this package<br />
+ * a proxy frees its native object with delete() or close() (Closeable), a proxy that is
+ * garbage collected without is freed by a daemon thread (safety net instead of finalize(),
+ * counted as collected)<br />
+ * live objects and bytes are reported per proxy type (bytes as far as known, e.g. the pixels of
+ * a Mat created from Java)
+ */
+public class NativeMemory {
+
+  /**
+   * frees the native objects of one proxy type
+   */
+  interface Deleter {
+
+    void delete(long cPtr);
+  }
+
+  /**
+   * the native object of a proxy, it must not refer to the proxy itself
+   */
+  static final class Ref extends PhantomReference<Object> {
+
+    private final long cPtr;
+    private final Deleter deleter;
+    private final String type;
+    private long bytes = 0;
+
+    private Ref(Object proxy, long cPtr, Deleter deleter) {
+      super(proxy, queue);
+      this.cPtr = cPtr;
+      this.deleter = deleter;
+      type = proxy.getClass().getSimpleName();
+    }
+  }
+
+  private static class Usage {
+
+    long count = 0;
+    long bytes = 0;
+    long freed = 0;
+    long collected = 0;
+  }
+
+  private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+  // the Refs have to be reachable until they are enqueued
+  private static final Set<Ref> live = new HashSet<Ref>();
+  private static final Map<String, Usage> usage = new TreeMap<String, Usage>();
+
+  static {
+    Thread reaper = new Thread("SikuliNativeMemory") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            release((Ref) queue.remove(), true);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    reaper.setDaemon(true);
+    reaper.start();
+  }
+
+  /**
+   * registers the native object owned by proxy
+   *
+   * @return to be given to free() by the proxy's delete()
+   */
+  static Ref track(Object proxy, long cPtr, Deleter deleter) {
+    Ref ref = new Ref(proxy, cPtr, deleter);
+    synchronized (NativeMemory.class) {
+      live.add(ref);
+      usageOf(ref.type).count++;
+    }
+    return ref;
+  }
+
+  /**
+   * for the proxy of a derived type: replaces the registration made by the base type's
+   * constructor (the derived type frees the object)
+   */
+  static Ref track(Object proxy, long cPtr, Deleter deleter, Ref base) {
+    if (base != null) {
+      synchronized (NativeMemory.class) {
+        if (live.remove(base)) {
+          usageOf(base.type).count--;
+        }
+      }
+      base.clear();
+    }
+    return track(proxy, cPtr, deleter);
+  }
+
+  /**
+   * @param bytes native memory known to be held by the object
+   */
+  static synchronized void setBytes(Ref ref, long bytes) {
+    if (ref != null && live.contains(ref)) {
+      Usage u = usageOf(ref.type);
+      u.bytes += bytes - ref.bytes;
+      ref.bytes = bytes;
+    }
+  }
+
+  /**
+   * frees the native object now (the proxy's delete())
+   */
+  static void free(Ref ref) {
+    if (ref != null) {
+      release(ref, false);
+      ref.clear();
+    }
+  }
+
+  private static void release(Ref ref, boolean collected) {
+    synchronized (NativeMemory.class) {
+      if (!live.remove(ref)) {
+        return;
+      }
+      Usage u = usageOf(ref.type);
+      u.count--;
+      u.bytes -= ref.bytes;
+      if (collected) {
+        u.collected++;
+      } else {
+        u.freed++;
+      }
+    }
+    ref.deleter.delete(ref.cPtr);
+  }
+
+  private static Usage usageOf(String type) {
+    Usage u = usage.get(type);
+    if (u == null) {
+      u = new Usage();
+      usage.put(type, u);
+    }
+    return u;
+  }
+
+  /**
+   * @param type simple class name of the proxy (e.g. Mat)
+   * @return number of native objects of this type not yet freed
+   */
+  public static synchronized long getLiveCount(String type) {
+    Usage u = usage.get(type);
+    return u == null ? 0 : u.count;
+  }
+
+  /**
+   * @param type simple class name of the proxy (e.g. Mat)
+   * @return known native bytes held by live objects of this type
+   */
+  public static synchronized long getLiveBytes(String type) {
+    Usage u = usage.get(type);
+    return u == null ? 0 : u.bytes;
+  }
+
+  /**
+   * @param type simple class name of the proxy (e.g. Mat)
+   * @return number of objects of this type freed by the safety net (not deleted by the user)
+   */
+  public static synchronized long getCollected(String type) {
+    Usage u = usage.get(type);
+    return u == null ? 0 : u.collected;
+  }
+
+  /**
+   * @return known native bytes held by all live objects
+   */
+  public static synchronized long getLiveBytes() {
+    long total = 0;
+    for (Usage u : usage.values()) {
+      total += u.bytes;
+    }
+    return total;
+  }
+
+  public static synchronized String getStatistics() {
+    StringBuilder s = new StringBuilder("NativeMemory:");
+    for (Map.Entry<String, Usage> e : usage.entrySet()) {
+      Usage u = e.getValue();
+      s.append(String.format(" %s: %d live (%.1f MB) %d freed %d collected;",
+              e.getKey(), u.count, u.bytes / 1048576.0, u.freed, u.collected));
+    }
+    return s.toString();
+  }
+}
@@ -8,33 +8,49 @@
 
 package org.sikuli.basics.proxies;
 
-public class OCR {
+import java.io.Closeable;
+
+public class OCR implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_OCR(cPtr);
+    }
+  };
 
   protected OCR(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(OCR obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_OCR(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
   }
 
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
+  }
+
   public static void setParameter(String param, String value) {
     VisionProxyJNI.OCR_setParameter(param, value);
   }
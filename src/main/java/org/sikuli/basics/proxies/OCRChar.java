@@ -10,25 +10,30 @@ package org.sikuli.basics.proxies;
 
 public class OCRChar extends OCRRect {
   private long swigCPtr;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_OCRChar(cPtr);
+    }
+  };
 
   protected OCRChar(long cPtr, boolean cMemoryOwn) {
     super(VisionProxyJNI.OCRChar_SWIGUpcast(cPtr), cMemoryOwn);
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER, nativeRef);
+    }
   }
 
   protected static long getCPtr(OCRChar obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_OCRChar(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
@@ -9,9 +9,25 @@ package org.sikuli.basics.proxies;
 import java.awt.*;
 import java.awt.color.*;
 import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class OpenCV {
+   // rows per task when converting large images in parallel
+   private static final int MIN_CONVERT_ROWS = 64;
+   // RGB of translucent pixels as stored by drawImage: unpremultiplied[alpha][value]
+   private static byte[][] unpremultiplied = null;
+
    public static BufferedImage createBufferedImage(int w, int h)
+   {
+      return createBufferedImage(w, h, new byte[w*h*4]);
+   }
+
+   /**
+    * an RGBA image on the given pixels (w * h * 4 bytes)
+    */
+   public static BufferedImage createBufferedImage(int w, int h, byte[] data)
    {
       ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
       int[] nBits = {8, 8, 8, 8};
@@ -21,23 +37,274 @@ public class OpenCV {
                                     DataBuffer.TYPE_BYTE);
 
       SampleModel sm = cm.createCompatibleSampleModel(w, h);
-      DataBufferByte db = new DataBufferByte(w*h*4); //4 channels buffer
+      DataBufferByte db = new DataBufferByte(data, w*h*4); //4 channels buffer
       WritableRaster r = WritableRaster.createWritableRaster(sm, db, new Point(0,0));
       BufferedImage bm = new BufferedImage(cm,r,false,null);
       return bm;
    }
 
+   /**
+    * @return the pixels of img as RGBA bytes<br />
+    * TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and RGBA images (isRGBA()) are
+    * read directly from their rasters (large images in parallel), other types are drawn into an
+    * RGBA image, the result is the same
+    */
    public static byte[] convertBufferedImageToByteArray(BufferedImage img){
-      BufferedImage cvImg = createBufferedImage(img.getWidth(), img.getHeight());
+      return convertBufferedImageToByteArray(img, null);
+   }
+
+   /**
+    * as convertBufferedImageToByteArray(img), but the pixels are stored into data
+    *
+    * @param data to be reused, null or not of size width * height * 4: a new array is allocated
+    * @return the array holding the pixels
+    */
+   public static byte[] convertBufferedImageToByteArray(BufferedImage img, byte[] data){
+      if (data == null || data.length != 4 * img.getWidth() * img.getHeight()) {
+         data = new byte[4 * img.getWidth() * img.getHeight()];
+      }
+      if (!isConvertible(img)) {
+         return drawRGBA(img, data);
+      }
+      return convertRGBA(img, data);
+   }
+
+   private static byte[] convertRGBA(final BufferedImage src, final byte[] data){
+      final int h = src.getHeight();
+      int chunks = MatchPool.chunks(h, MIN_CONVERT_ROWS);
+      if (chunks == 1) {
+         convertRows(src, data, 0, h, 0);
+         return data;
+      }
+      List<Runnable> tasks = new ArrayList<Runnable>(chunks);
+      for (int i = 0; i < chunks; i++) {
+         final int y0 = h * i / chunks, y1 = h * (i + 1) / chunks;
+         tasks.add(new Runnable() {
+            @Override
+            public void run() {
+               convertRows(src, data, y0, y1, 0);
+            }
+         });
+      }
+      MatchPool.invokeAll(tasks);
+      return data;
+   }
+
+   private static byte[] drawRGBA(BufferedImage img, byte[] data){
+      // drawn over transparent black
+      Arrays.fill(data, (byte) 0);
+      BufferedImage cvImg = createBufferedImage(img.getWidth(), img.getHeight(), data);
       Graphics2D g = cvImg.createGraphics();
       g.drawImage(img, 0, 0, null);
       g.dispose();
       return ((DataBufferByte)cvImg.getRaster().getDataBuffer()).getData();
    }
 
+   private static boolean isConvertible(BufferedImage img){
+      Raster r = img.getRaster();
+      if (isRGBA(img)) {
+         return true;
+      }
+      switch (img.getType()) {
+         case BufferedImage.TYPE_INT_RGB:
+         case BufferedImage.TYPE_INT_ARGB:
+            return r.getDataBuffer().getNumBanks() == 1
+                    && r.getSampleModel() instanceof SinglePixelPackedSampleModel;
+         case BufferedImage.TYPE_3BYTE_BGR:
+         case BufferedImage.TYPE_4BYTE_ABGR:
+            return r.getDataBuffer().getNumBanks() == 1
+                    && r.getSampleModel() instanceof PixelInterleavedSampleModel;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * converts the rows y0 to y1 - 1 of img (as accepted by isConvertible()) to RGBA in data,
+    * row y of img into row y - base of data
+    */
+   private static void convertRows(BufferedImage img, byte[] data, int y0, int y1, int base){
+      Raster r = img.getRaster();
+      DataBuffer db = r.getDataBuffer();
+      int w = img.getWidth();
+      int tx = r.getSampleModelTranslateX(), ty = r.getSampleModelTranslateY();
+      byte[][] table = getUnpremultiplied();
+      int type = img.getType();
+      // RGBA images (TYPE_CUSTOM) are pixel interleaved bytes as TYPE_4BYTE_ABGR
+      if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+         int[] src = ((DataBufferInt) db).getData();
+         int stride = ((SinglePixelPackedSampleModel) r.getSampleModel()).getScanlineStride();
+         boolean opaque = type == BufferedImage.TYPE_INT_RGB;
+         for (int y = y0; y < y1; y++) {
+            int si = db.getOffset() + (y - ty) * stride - tx;
+            int di = 4 * (y - base) * w;
+            for (int x = 0; x < w; x++, si++, di += 4) {
+               int p = src[si];
+               int a = opaque ? 255 : p >>> 24;
+               if (a == 255) {
+                  data[di] = (byte) (p >> 16);
+                  data[di + 1] = (byte) (p >> 8);
+                  data[di + 2] = (byte) p;
+                  data[di + 3] = (byte) 255;
+               } else {
+                  byte[] t = table[a];
+                  data[di] = t[(p >> 16) & 0xff];
+                  data[di + 1] = t[(p >> 8) & 0xff];
+                  data[di + 2] = t[p & 0xff];
+                  data[di + 3] = (byte) a;
+               }
+            }
+         }
+      } else {
+         byte[] src = ((DataBufferByte) db).getData();
+         PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) r.getSampleModel();
+         int stride = sm.getScanlineStride(), ps = sm.getPixelStride();
+         int[] off = sm.getBandOffsets();
+         int or = off[0], og = off[1], ob = off[2];
+         boolean opaque = off.length < 4;
+         int oa = opaque ? 0 : off[3];
+         for (int y = y0; y < y1; y++) {
+            int si = db.getOffset() + (y - ty) * stride - tx * ps;
+            int di = 4 * (y - base) * w;
+            for (int x = 0; x < w; x++, si += ps, di += 4) {
+               int a = opaque ? 255 : src[si + oa] & 0xff;
+               if (a == 255) {
+                  data[di] = src[si + or];
+                  data[di + 1] = src[si + og];
+                  data[di + 2] = src[si + ob];
+                  data[di + 3] = (byte) 255;
+               } else {
+                  byte[] t = table[a];
+                  data[di] = t[src[si + or] & 0xff];
+                  data[di + 1] = t[src[si + og] & 0xff];
+                  data[di + 2] = t[src[si + ob] & 0xff];
+                  data[di + 3] = (byte) a;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * @return the pixels of img as one gray byte per pixel (PixelMat.luma() of the RGBA pixels as
+    * by convertBufferedImageToByteArray()), the RGBA pixels are not kept: images read directly
+    * from their rasters are converted row by row (large images in parallel)
+    */
+   public static byte[] convertBufferedImageToGray(BufferedImage img){
+      return convertBufferedImageToGray(img, null);
+   }
+
+   /**
+    * as convertBufferedImageToGray(img), but the pixels are stored into data
+    *
+    * @param data to be reused, null or not of size width * height: a new array is allocated
+    * @return the array holding the pixels
+    */
+   public static byte[] convertBufferedImageToGray(final BufferedImage img, byte[] data){
+      final int w = img.getWidth(), h = img.getHeight();
+      if (data == null || data.length != w * h) {
+         data = new byte[w * h];
+      }
+      if (!isConvertible(img)) {
+         byte[] rgba = drawRGBA(img, new byte[4 * w * h]);
+         grayRows(rgba, data, w, 0, h);
+         return data;
+      }
+      final byte[] gray = data;
+      int chunks = MatchPool.chunks(h, MIN_CONVERT_ROWS);
+      List<Runnable> tasks = new ArrayList<Runnable>(chunks);
+      for (int i = 0; i < chunks; i++) {
+         final int y0 = h * i / chunks, y1 = h * (i + 1) / chunks;
+         tasks.add(new Runnable() {
+            @Override
+            public void run() {
+               byte[] row = new byte[4 * w];
+               for (int y = y0; y < y1; y++) {
+                  convertRows(img, row, y, y + 1, y);
+                  grayRows(row, gray, w, y, y + 1);
+               }
+            }
+         });
+      }
+      MatchPool.invokeAll(tasks);
+      return data;
+   }
+
+   // rgba holds the rows y0 ... y1 - 1 of an image of width w, gray the whole image
+   private static void grayRows(byte[] rgba, byte[] gray, int w, int y0, int y1){
+      for (int si = 0, di = y0 * w, end = (y1 - y0) * w; si < 4 * end; si += 4, di++) {
+         gray[di] = (byte) PixelMat.luma(rgba[si] & 0xff, rgba[si + 1] & 0xff, rgba[si + 2] & 0xff);
+      }
+   }
+
+   /**
+    * taken once from drawImage, so translucent pixels are rounded exactly as by drawRGBA()
+    */
+   private static synchronized byte[][] getUnpremultiplied(){
+      if (unpremultiplied == null) {
+         BufferedImage all = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+         for (int a = 0; a < 256; a++) {
+            for (int v = 0; v < 256; v++) {
+               all.setRGB(v, a, (a << 24) | (v << 16) | (v << 8) | v);
+            }
+         }
+         byte[] drawn = drawRGBA(all, new byte[4 * 256 * 256]);
+         byte[][] table = new byte[256][256];
+         for (int a = 0; a < 256; a++) {
+            for (int v = 0; v < 256; v++) {
+               table[a][v] = drawn[4 * (a * 256 + v)];
+            }
+         }
+         unpremultiplied = table;
+      }
+      return unpremultiplied;
+   }
+
+   /**
+    * @return true if the pixels of img are laid out as needed by Vision.createMat()
+    * (as with createBufferedImage(): 4 bytes RGBA per pixel, no gaps)
+    */
+   public static boolean isRGBA(BufferedImage img){
+      Raster r = img.getRaster();
+      if (!(r.getDataBuffer() instanceof DataBufferByte)
+              || !(r.getSampleModel() instanceof PixelInterleavedSampleModel)
+              || !(img.getColorModel() instanceof ComponentColorModel)
+              || img.getColorModel().isAlphaPremultiplied()
+              || !img.getColorModel().getColorSpace().isCS_sRGB()
+              || r.getSampleModelTranslateX() != 0 || r.getSampleModelTranslateY() != 0) {
+         return false;
+      }
+      PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) r.getSampleModel();
+      int[] offsets = sm.getBandOffsets();
+      return sm.getNumBands() == 4 && sm.getPixelStride() == 4
+              && sm.getScanlineStride() == 4 * img.getWidth()
+              && offsets[0] == 0 && offsets[1] == 1 && offsets[2] == 2 && offsets[3] == 3
+              && r.getDataBuffer().getNumBanks() == 1
+              && ((DataBufferByte) r.getDataBuffer()).getData().length == 4 * img.getWidth() * img.getHeight();
+   }
+
+   /**
+    * @return the RGBA pixels of img: its own pixel array if isRGBA(img) (no copy,
+    * changes of the image are seen in the array), otherwise as convertBufferedImageToByteArray()
+    */
+   public static byte[] getRGBA(BufferedImage img){
+      if (isRGBA(img)) {
+         return ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+      }
+      return convertBufferedImageToByteArray(img);
+   }
+
+   /**
+    * an image created with createBufferedImage() (e.g. a capture drawn into it) is not converted
+    * again, its pixels are only copied into the Mat (see Vision.createMat())
+    */
    public static Mat convertBufferedImageToMat(BufferedImage img){
+      if (isRGBA(img)) {
+         // the pixels of the image, that may change
+         return Vision.createMat(img.getHeight(), img.getWidth(), getRGBA(img));
+      }
       byte[] data = convertBufferedImageToByteArray(img);
-      return Vision.createMat(img.getHeight(), img.getWidth(), data);
+      return Vision.createMat(img.getHeight(), img.getWidth(), data, true);
    }
 
 }
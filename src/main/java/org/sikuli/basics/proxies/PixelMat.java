@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java side view of the pixels of a Mat<br />
+ * interleaved 8-bit channels (RGBA as created by OpenCV.convertBufferedImageToByteArray, GRAY
+ * as by OpenCV.convertBufferedImageToGray)<br />
+ * addressed by offset and row stride, so the data array is not copied
+ */
+public class PixelMat {
+
+  public static final int GRAY = 1;
+  public static final int RGBA = 4;
+
+  private final byte[] data;
+  private final int width;
+  private final int height;
+  private final int channels;
+  private final int offset;
+  private final int stride;
+  // the prepared source of a frame (MatchSource.of()), guarded by this
+  MatchSource prepared = null;
+
+  public PixelMat(int width, int height, int channels, byte[] data) {
+    this(width, height, channels, data, 0, width * channels);
+  }
+
+  public PixelMat(int width, int height, int channels, byte[] data, int offset, int stride) {
+    if (width < 0 || height < 0 || channels < 1 || stride < width * channels
+            || offset < 0 || (height > 0 && offset + (height - 1) * stride + width * channels > data.length)) {
+      throw new IllegalArgumentException(String.format(
+              "PixelMat: %dx%dx%d (offset %d, stride %d) does not fit into %d bytes",
+              width, height, channels, offset, stride, data.length));
+    }
+    this.width = width;
+    this.height = height;
+    this.channels = channels;
+    this.data = data;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * @return index into getData() of the first channel of pixel (x, y)
+   */
+  public int index(int x, int y) {
+    return offset + y * stride + x * channels;
+  }
+
+  /**
+   * @return channel c of pixel (x, y) as 0 ... 255
+   */
+  public int get(int x, int y, int c) {
+    return data[offset + y * stride + x * channels + c] & 0xff;
+  }
+
+  /**
+   * @return the pixels of the rectangle (x, y, w, h) sharing this data array (no copy)
+   */
+  public PixelMat view(int x, int y, int w, int h) {
+    if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+      throw new IllegalArgumentException(String.format(
+              "PixelMat: view (%d, %d, %d, %d) not inside %dx%d", x, y, w, h, width, height));
+    }
+    return new PixelMat(w, h, channels, data, index(x, y), stride);
+  }
+
+  /**
+   * @return a compact copy of the pixels of the rectangle (x, y, w, h)
+   */
+  public byte[] copy(int x, int y, int w, int h) {
+    byte[] part = new byte[w * h * channels];
+    for (int r = 0; r < h; r++) {
+      System.arraycopy(data, index(x, y + r), part, r * w * channels, w * channels);
+    }
+    return part;
+  }
+
+  /**
+   * @return a new PixelMat with channel c of the pixels
+   */
+  public PixelMat channel(int c) {
+    byte[] plane = new byte[width * height];
+    for (int y = 0, di = 0; y < height; y++) {
+      for (int x = 0, si = index(0, y) + c; x < width; x++, si += channels) {
+        plane[di++] = data[si];
+      }
+    }
+    return new PixelMat(width, height, GRAY, plane);
+  }
+
+  /**
+   * @return a new PixelMat of half the width and height, each pixel the mean of a 2x2 block
+   */
+  public PixelMat halve() {
+    int w = width / 2, h = height / 2;
+    byte[] half = new byte[w * h * channels];
+    int hi = 0;
+    for (int y = 0; y < h; y++) {
+      int i0 = index(0, 2 * y), i1 = i0 + stride;
+      for (int x = 0; x < w; x++, i0 += channels, i1 += channels) {
+        for (int c = 0; c < channels; c++) {
+          int sum = (data[i0 + c] & 0xff) + (data[i0 + channels + c] & 0xff)
+                  + (data[i1 + c] & 0xff) + (data[i1 + channels + c] & 0xff);
+          half[hi++] = (byte) ((sum + 2) >> 2);
+        }
+        i0 += channels;
+        i1 += channels;
+      }
+    }
+    return new PixelMat(w, h, channels, half);
+  }
+
+  /**
+   * @return a new PixelMat of the given size: area averaging when shrinking, bilinear when
+   * enlarging (per direction, as OpenCV's INTER_AREA and INTER_LINEAR), all channels
+   */
+  public PixelMat resize(int w, int h) {
+    Taps tx = new Taps(width, w), ty = new Taps(height, h);
+    // horizontal pass
+    float[] rows = new float[height * w * channels];
+    for (int y = 0, ri = 0; y < height; y++) {
+      for (int x = 0; x < w; x++) {
+        int si = index(tx.first[x], y);
+        for (int c = 0; c < channels; c++) {
+          float v = 0;
+          for (int k = 0; k < tx.count[x]; k++) {
+            v += (data[si + k * channels + c] & 0xff) * tx.weights[x * tx.max + k];
+          }
+          rows[ri++] = v;
+        }
+      }
+    }
+    // vertical pass
+    int rowLength = w * channels;
+    byte[] out = new byte[h * rowLength];
+    for (int y = 0, di = 0; y < h; y++) {
+      for (int i = 0; i < rowLength; i++) {
+        float v = 0;
+        for (int k = 0; k < ty.count[y]; k++) {
+          v += rows[(ty.first[y] + k) * rowLength + i] * ty.weights[y * ty.max + k];
+        }
+        out[di++] = (byte) Math.min(255, Math.max(0, Math.round(v)));
+      }
+    }
+    return new PixelMat(w, h, channels, out);
+  }
+
+  /**
+   * the source pixels making up each of m pixels resampled from n along one direction
+   */
+  private static class Taps {
+
+    final int[] first, count;
+    final float[] weights;
+    final int max;
+
+    Taps(int n, int m) {
+      first = new int[m];
+      count = new int[m];
+      double f = (double) n / m;
+      max = m < n ? (int) Math.ceil(f) + 1 : 2;
+      weights = new float[m * max];
+      for (int i = 0; i < m; i++) {
+        if (m < n) {
+          // the part of each source pixel covered by [i * f, (i + 1) * f)
+          double a = i * f, b = Math.min(n, (i + 1) * f);
+          first[i] = (int) a;
+          for (int j = first[i]; j < b && count[i] < max; j++) {
+            double cover = Math.min(b, j + 1) - Math.max(a, j);
+            weights[i * max + count[i]++] = (float) (cover / f);
+          }
+        } else {
+          double s = Math.min(n - 1, Math.max(0, (i + 0.5) * f - 0.5));
+          first[i] = Math.min((int) s, Math.max(0, n - 2));
+          double t = s - first[i];
+          count[i] = n > 1 ? 2 : 1;
+          weights[i * max] = (float) (1 - t);
+          if (n > 1) {
+            weights[i * max + 1] = (float) t;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the gray value of a color (ITU-R BT.601 weights, in 8 bit fixed point)
+   */
+  public static int luma(int r, int g, int b) {
+    return (77 * r + 150 * g + 29 * b + 128) >> 8;
+  }
+
+  /**
+   * @return a new PixelMat with one channel: the luma() of each pixel (this if it has one
+   * channel already), large images are converted in parallel
+   */
+  public PixelMat toGray() {
+    if (channels == GRAY) {
+      return this;
+    }
+    final byte[] gray = new byte[width * height];
+    int chunks = MatchPool.chunks(height, 64);
+    List<Runnable> tasks = new ArrayList<Runnable>(chunks);
+    for (int i = 0; i < chunks; i++) {
+      final int y0 = height * i / chunks, y1 = height * (i + 1) / chunks;
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          grayRows(gray, y0, y1);
+        }
+      });
+    }
+    MatchPool.invokeAll(tasks);
+    return new PixelMat(width, height, GRAY, gray);
+  }
+
+  private void grayRows(byte[] gray, int y0, int y1) {
+    // less than 3 channels: the first one is taken as gray
+    int g = Math.min(1, channels - 1), b = Math.min(2, channels - 1);
+    for (int y = y0; y < y1; y++) {
+      int si = index(0, y), di = y * width;
+      for (int x = 0; x < width; x++, si += channels) {
+        gray[di++] = (byte) luma(data[si] & 0xff, data[si + g] & 0xff, data[si + b] & 0xff);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PixelMat(%dx%dx%d)", width, height, channels);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import org.sikuli.basics.Settings;
+
+/**
+ * rejects target positions by a few anchor pixels before the full correlation<br />
+ * the anchors are the target pixels deviating most from the target's means (edges, rare
+ * colors, of a masked target its opaque pixels only), together holding most of the target's
+ * variance, their correlation with the source plus the most the other pixels could add
+ * (Cauchy-Schwarz) is an upper bound of the score,
+ * a position whose bound is below the required score cannot match and is skipped<br />
+ * the anchors are chosen once per prepared target, rejected positions and the estimated time
+ * saved are counted (getStatistics())
+ */
+public class Prescreen {
+
+  // the anchors hold at least this part of the target's variance
+  private static final double ENERGY = 0.75;
+  // at most this part of the target pixels are anchors
+  private static final int MAX_PART = 4;
+  // smaller targets are scored fully, the prescreen would not pay
+  private static final int MIN_PIXELS = 64;
+  private static final String KEY = "prescreen";
+  private static final Prescreen NONE = new Prescreen();
+
+  private final MatchTarget target;
+  private final int count;
+  private final int[] xs, ys;
+  private final float[] tz;
+  private final double[] sumT;
+  private final double norm2, restNorm;
+  private final int w, h, nc;
+
+  private static long checked = 0;
+  private static long rejected = 0;
+  private static double savedNanos = 0;
+
+  private Prescreen() {
+    target = null;
+    count = w = h = nc = 0;
+    xs = ys = null;
+    tz = null;
+    sumT = null;
+    norm2 = restNorm = 0;
+  }
+
+  private Prescreen(MatchTarget target, Integer[] anchors, int count, double anchorNorm) {
+    this.target = target;
+    this.count = count;
+    w = target.getWidth();
+    h = target.getHeight();
+    nc = target.getColorChannels();
+    norm2 = target.getNorm2();
+    restNorm = Math.max(0, norm2 - anchorNorm);
+    // in memory order of the source
+    Arrays.sort(anchors, 0, count);
+    xs = new int[count];
+    ys = new int[count];
+    tz = new float[count * nc];
+    sumT = new double[nc];
+    float[] all = target.getZeroMean();
+    // of a masked target only the opaque pixels are in the zero mean values
+    int[] points = target.getPoints();
+    for (int i = 0; i < count; i++) {
+      int p = anchors[i], pixel = points == null ? p : points[p];
+      xs[i] = pixel % w;
+      ys[i] = pixel / w;
+      for (int c = 0; c < nc; c++) {
+        tz[i * nc + c] = all[p * nc + c];
+        sumT[c] += all[p * nc + c];
+      }
+    }
+  }
+
+  /**
+   * @return the anchors of the target, null if the prescreen is off (Settings.Prescreen) or would
+   * not help (small or plain target, variance spread over too many pixels)
+   */
+  public static Prescreen of(MatchTarget target) {
+    if (!Settings.Prescreen) {
+      return null;
+    }
+    Prescreen p;
+    synchronized (target) {
+      p = (Prescreen) target.getAttached(KEY);
+      if (p == null) {
+        p = choose(target);
+        target.setAttached(KEY, p);
+      }
+    }
+    return p == NONE ? null : p;
+  }
+
+  private static Prescreen choose(MatchTarget target) {
+    int n = target.getPixelCount(), nc = target.getColorChannels();
+    if (n < MIN_PIXELS || target.isPlain()) {
+      return NONE;
+    }
+    float[] tz = target.getZeroMean();
+    final double[] energy = new double[n];
+    Integer[] order = new Integer[n];
+    for (int p = 0; p < n; p++) {
+      for (int c = 0; c < nc; c++) {
+        energy[p] += tz[p * nc + c] * tz[p * nc + c];
+      }
+      order[p] = p;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return energy[a] > energy[b] ? -1 : (energy[a] < energy[b] ? 1 : 0);
+      }
+    });
+    double sum = 0, needed = ENERGY * target.getNorm2();
+    for (int i = 0; i < n / MAX_PART; i++) {
+      sum += energy[order[i]];
+      if (sum >= needed) {
+        return new Prescreen(target, order, i + 1, sum);
+      }
+    }
+    return NONE;
+  }
+
+  public int getAnchors() {
+    return count;
+  }
+
+  /**
+   * @return true if the score at (x, y) is surely below minScore
+   */
+  public boolean rejects(MatchSource source, int x, int y, double minScore) {
+    double var = source.variance(x, y, target);
+    if (var < 1e-6) {
+      // scored 0
+      return minScore > 0;
+    }
+    PixelMat pixels = source.getPixels();
+    byte[] data = pixels.getData();
+    // nc is at most 3: sums and squared sums of the anchor values per channel
+    double num = 0, s0 = 0, s1 = 0, s2 = 0, q = 0;
+    for (int i = 0, ti = 0; i < count; i++) {
+      int si = pixels.index(x + xs[i], y + ys[i]);
+      int v = data[si] & 0xff;
+      num += v * tz[ti++];
+      s0 += v;
+      q += v * v;
+      if (nc > 1) {
+        v = data[si + 1] & 0xff;
+        num += v * tz[ti++];
+        s1 += v;
+        q += v * v;
+        if (nc > 2) {
+          v = data[si + 2] & 0xff;
+          num += v * tz[ti++];
+          s2 += v;
+          q += v * v;
+        }
+      }
+    }
+    // with the window means m: sum (v - m) t = sum v t - m sum t,
+    // sum (v - m)^2 = sum v^2 - 2 m sum v + count m^2
+    double n = target.getPixelCount(), anchorVar = q;
+    double[] sums = {s0, s1, s2};
+    for (int c = 0; c < nc; c++) {
+      double m = source.sum(c, x, y, target) / n;
+      num -= m * sumT[c];
+      anchorVar += m * (count * m - 2 * sums[c]);
+    }
+    double bound = (num + Math.sqrt(Math.max(0, var - anchorVar) * restNorm))
+            / Math.sqrt(var * norm2);
+    // float rounding of the full correlation
+    return bound + 1e-4 < minScore;
+  }
+
+  /**
+   * adds the counts of one scan
+   *
+   * @param positions positions looked at
+   * @param skipped positions rejected
+   * @param nanos time of the scan
+   */
+  void count(long positions, long skipped, long nanos) {
+    long n = target.getPixelCount();
+    double done = (double) (positions - skipped) * n + (double) positions * count;
+    double saved = done > 0 ? skipped * (n - count) * (nanos / done) : 0;
+    synchronized (Prescreen.class) {
+      checked += positions;
+      rejected += skipped;
+      savedNanos += saved;
+    }
+  }
+
+  public static synchronized long getChecked() {
+    return checked;
+  }
+
+  public static synchronized long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return part of the positions rejected by the prescreen
+   */
+  public static synchronized double getRejectionRate() {
+    return checked == 0 ? 0 : (double) rejected / checked;
+  }
+
+  /**
+   * @return estimated thread time saved in milliseconds (summed over the parallel scans): the
+   * rejected correlations at the measured time per pixel
+   */
+  public static synchronized double getTimeSaved() {
+    return savedNanos / 1e6;
+  }
+
+  public static synchronized void resetCounters() {
+    checked = rejected = 0;
+    savedNanos = 0;
+  }
+
+  public static synchronized String getStatistics() {
+    return String.format("Prescreen: %d positions, %d rejected (%.1f%%), about %.0f ms thread time saved",
+            checked, rejected, 100 * getRejectionRate(), getTimeSaved());
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+import org.sikuli.basics.Debug;
+import org.sikuli.basics.Settings;
+
+/**
+ * the scales at which targets were found by the multi-scale search (FindOptions.setScales()),
+ * per host and target, so the next search tries the scale of the last match first<br />
+ * the target is known by its pixels (size and hash, as by TargetCache), with
+ * Settings.ScaleCacheFile the scales are kept in that file (several hosts may share it, each
+ * save merges the entries of the other hosts under a file lock)<br />
+ * a changed scale is saved in the background shortly after (changes meanwhile are saved
+ * together) and at exit, never by the search itself (see flush())<br />
+ * all methods are thread safe
+ */
+public class ScaleCache {
+
+  private static final String KEY = "scaleKey";
+  // changes within this time (ms) are saved at once
+  private static final long SAVE_DELAY = 1000;
+  private static final Properties scales = new Properties();
+  // one save at a time in this process (a FileLock is held per process)
+  private static final Object saving = new Object();
+  private static String loadedFrom = null;
+  private static boolean dirty = false;
+  private static Thread saver = null;
+  private static String host = null;
+  private static long hits = 0;
+  private static long misses = 0;
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, "SikuliScaleCacheExit"));
+  }
+
+  /**
+   * @return the scale the target was found at last on this host, 0 if not known
+   */
+  public static synchronized double get(MatchTarget target) {
+    load();
+    String value = scales.getProperty(keyOf(target));
+    if (value != null) {
+      try {
+        return Double.parseDouble(value);
+      } catch (NumberFormatException e) {
+        scales.remove(keyOf(target));
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * remembers the scale the target was found at (saved to Settings.ScaleCacheFile in the
+   * background, if changed)
+   */
+  public static synchronized void put(MatchTarget target, double scale) {
+    load();
+    String value = Double.toString(scale);
+    if (!value.equals(scales.setProperty(keyOf(target), value)) && loadedFrom != null) {
+      dirty = true;
+      if (saver == null) {
+        saver = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              Thread.sleep(SAVE_DELAY);
+            } catch (InterruptedException e) {
+              // saved now
+            }
+            synchronized (ScaleCache.class) {
+              saver = null;
+            }
+            flush();
+          }
+        }, "SikuliScaleCache");
+        saver.setDaemon(true);
+        saver.start();
+      }
+    }
+  }
+
+  /**
+   * saves the changed scales now (in the calling thread, done in the background and at exit
+   * anyway)
+   */
+  public static void flush() {
+    synchronized (saving) {
+      String file;
+      Properties own = new Properties();
+      synchronized (ScaleCache.class) {
+        if (!dirty || loadedFrom == null) {
+          return;
+        }
+        dirty = false;
+        file = loadedFrom;
+        String prefix = getHost() + "|";
+        for (String key : scales.stringPropertyNames()) {
+          if (key.startsWith(prefix)) {
+            own.setProperty(key, scales.getProperty(key));
+          }
+        }
+      }
+      Properties others = save(file, own);
+      if (others != null) {
+        synchronized (ScaleCache.class) {
+          if (file.equals(loadedFrom)) {
+            scales.putAll(others);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * counts a search: found at the remembered scale (hit) or not
+   */
+  static synchronized void count(boolean hit) {
+    if (hit) {
+      hits++;
+    } else {
+      misses++;
+    }
+  }
+
+  private static String keyOf(MatchTarget target) {
+    String key = (String) target.getAttached(KEY);
+    if (key == null) {
+      key = getHost() + "|" + TargetCache.keyOf(target.getPixels());
+      target.setAttached(KEY, key);
+    }
+    return key;
+  }
+
+  private static String getHost() {
+    if (host == null) {
+      try {
+        host = InetAddress.getLocalHost().getHostName();
+      } catch (IOException e) {
+        host = "localhost";
+      }
+    }
+    return host;
+  }
+
+  // (re)reads the file, when Settings.ScaleCacheFile is set or changed
+  private static void load() {
+    String file = Settings.ScaleCacheFile;
+    if (file == null || file.equals(loadedFrom)) {
+      return;
+    }
+    loadedFrom = file;
+    if (!new File(file).exists()) {
+      return;
+    }
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      scales.load(in);
+    } catch (IOException e) {
+      Debug.error("ScaleCache: cannot read %s: %s", file, e.getMessage());
+    } finally {
+      close(in);
+    }
+  }
+
+  /**
+   * writes the scales of this host to the file under a lock, merged with what other hosts wrote
+   * meanwhile (their entries are taken from the file, those of this host from own)
+   *
+   * @return the entries of the other hosts, null if the file could not be written
+   */
+  private static Properties save(String name, Properties own) {
+    RandomAccessFile file = null;
+    FileLock lock = null;
+    try {
+      file = new RandomAccessFile(name, "rw");
+      lock = file.getChannel().lock();
+      byte[] old = new byte[(int) file.length()];
+      file.readFully(old);
+      Properties stored = new Properties();
+      stored.load(new ByteArrayInputStream(old));
+      Properties others = new Properties();
+      String prefix = getHost() + "|";
+      for (String key : stored.stringPropertyNames()) {
+        if (!key.startsWith(prefix)) {
+          others.setProperty(key, stored.getProperty(key));
+        }
+      }
+      Properties merged = new Properties();
+      merged.putAll(others);
+      merged.putAll(own);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      merged.store(out, "Sikuli: scales of the patterns found per host");
+      file.seek(0);
+      file.write(out.toByteArray());
+      file.setLength(out.size());
+      return others;
+    } catch (IOException e) {
+      Debug.error("ScaleCache: cannot write %s: %s", name, e.getMessage());
+      return null;
+    } finally {
+      if (lock != null) {
+        try {
+          lock.release();
+        } catch (IOException e) {
+          // closing the file releases it
+        }
+      }
+      close(file);
+    }
+  }
+
+  private static void close(Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+    }
+  }
+
+  /**
+   * forgets all scales (the file is not changed, it is read again with the next search)
+   */
+  public static synchronized void clear() {
+    scales.clear();
+    loadedFrom = null;
+    dirty = false;
+  }
+
+  public static synchronized int size() {
+    return scales.size();
+  }
+
+  /**
+   * @return searches that found the target at the remembered scale
+   */
+  public static synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return searches without a remembered scale or not finding the target there
+   */
+  public static synchronized long getMisses() {
+    return misses;
+  }
+
+  public static synchronized void resetCounters() {
+    hits = misses = 0;
+  }
+
+  public static synchronized String getStatistics() {
+    return String.format("ScaleCache: %d scales hits: %d misses: %d", scales.size(), hits, misses);
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.sikuli.basics.Debug;
+import org.sikuli.basics.Settings;
+
+/**
+ * repeated searches of many targets (wait, onAppear, onVanish, ...) on one shared capture: each
+ * tick one frame is captured and searched for all the scans due, each with its own options
+ * (e.g. region) and rate<br />
+ * a scan due within a quarter of its period is taken with the frame of the current tick, scans
+ * of the same target with the same options are searched only once per frame, the searches run
+ * in parallel (MatchPool) with the frame prepared once (MatchSource), so the work grows with
+ * the number of different searches, not with the scans times the captures<br />
+ * a search stops after the period of its scan from its start (the longest of the scans
+ * sharing it, see Deadline), the matches found so far are reported as partial
+ * (MatchBuffer.isPartial()), the next searches of a scan stopped so get twice the time each,
+ * until one completes (then half of it, at least the period), so a search slower than its
+ * period completes every other time instead of never, the ticks being slower meanwhile<br />
+ * the searches of smaller regions are started first, so they are not kept waiting by those of
+ * the whole frame<br />
+ * the scheduler thread runs while there are scans, the listeners are called in it
+ */
+public class ScanScheduler {
+
+  /**
+   * where the frames come from (e.g. a screen)
+   */
+  public interface Capture {
+
+    /**
+     * @return the current frame, null if there is none now (the scans due are skipped)
+     */
+    public BufferedImage capture();
+  }
+
+  public interface Listener {
+
+    /**
+     * called after each search of the scan with the matches (empty if not found, isPartial()
+     * if stopped before the end)
+     */
+    public void scanned(Scan scan, MatchBuffer found);
+  }
+
+  /**
+   * a registered target with its options, rate and listener
+   */
+  public class Scan {
+
+    private final MatchTarget target;
+    private final FindOptions options;
+    private final Listener listener;
+    private final long period;
+    private final String key;
+    private long due;
+    // time given to the next search, more than period while searches stop partial
+    private long budget;
+    private volatile boolean active = true;
+
+    private Scan(PixelMat pixels, FindOptions options, double rate, Listener listener) {
+      target = TargetCache.prepared(pixels);
+      this.options = options.copy();
+      this.listener = listener;
+      period = (long) (1e9 / Math.max(0.01, rate));
+      key = TargetCache.keyOf(pixels) + " " + this.options;
+      due = System.nanoTime();
+      budget = period;
+    }
+
+    public FindOptions getOptions() {
+      return options;
+    }
+
+    /**
+     * @return searches per second
+     */
+    public double getRate() {
+      return 1e9 / period;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+
+    /**
+     * stops the scan (as unregister()), the listener is not called any more
+     */
+    public void cancel() {
+      unregister(this);
+    }
+  }
+
+  // a scan is taken this part of its period early, to share the frame of a tick
+  private static final double EARLY = 0.25;
+  private final Capture capture;
+  private final List<Scan> scans = new ArrayList<Scan>();
+  private Thread thread = null;
+  private long ticks = 0;
+  private long searches = 0;
+  private long scanned = 0;
+
+  public ScanScheduler(Capture capture) {
+    this.capture = capture;
+  }
+
+  /**
+   * as register(target, options, Settings.ObserveScanRate, listener)
+   */
+  public Scan register(PixelMat target, FindOptions options, Listener listener) {
+    return register(target, options, Settings.ObserveScanRate, listener);
+  }
+
+  /**
+   * starts searching the target with the options (copied, the deadline is not used) rate times
+   * per second, the first search is done with the next tick
+   *
+   * @return the scan, to be cancelled when no longer needed
+   */
+  public synchronized Scan register(PixelMat target, FindOptions options, double rate,
+          Listener listener) {
+    Scan scan = new Scan(target, options, rate, listener);
+    scans.add(scan);
+    if (thread == null) {
+      thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          schedule();
+        }
+      }, "SikuliScan");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    notifyAll();
+    return scan;
+  }
+
+  public synchronized void unregister(Scan scan) {
+    scan.active = false;
+    scans.remove(scan);
+    notifyAll();
+  }
+
+  /**
+   * cancels all scans, the scheduler thread ends
+   */
+  public synchronized void stop() {
+    for (Scan scan : scans) {
+      scan.active = false;
+    }
+    scans.clear();
+    notifyAll();
+  }
+
+  public synchronized int size() {
+    return scans.size();
+  }
+
+  private void schedule() {
+    while (true) {
+      List<Scan> due = new ArrayList<Scan>();
+      synchronized (this) {
+        try {
+          while (true) {
+            if (scans.isEmpty()) {
+              thread = null;
+              return;
+            }
+            long wait = Long.MAX_VALUE, now = System.nanoTime();
+            for (Scan scan : scans) {
+              wait = Math.min(wait, scan.due - now);
+            }
+            if (wait <= 0) {
+              break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+          }
+        } catch (InterruptedException e) {
+          thread = null;
+          return;
+        }
+        long now = System.nanoTime();
+        for (Scan scan : scans) {
+          if (scan.due - now <= (long) (EARLY * scan.period)) {
+            due.add(scan);
+            // a scan behind its rate is not made up for
+            scan.due = Math.max(scan.due + scan.period, now + scan.period / 2);
+          }
+        }
+      }
+      try {
+        tick(due);
+      } catch (RuntimeException e) {
+        Debug.error("ScanScheduler: %s", e);
+      }
+    }
+  }
+
+  /**
+   * captures a frame and searches it for the distinct searches of the scans
+   */
+  private void tick(List<Scan> due) {
+    BufferedImage img = capture.capture();
+    if (img == null) {
+      return;
+    }
+    MatArena.Frame frame = MatArena.borrow(img);
+    try {
+      final MatchSource source = MatchSource.of(frame.getPixels());
+      final int w = source.getWidth(), h = source.getHeight();
+      Collections.sort(due, new Comparator<Scan>() {
+        @Override
+        public int compare(Scan a, Scan b) {
+          long aa = area(a.options, w, h), ab = area(b.options, w, h);
+          return aa < ab ? -1 : (aa > ab ? 1 : 0);
+        }
+      });
+      final Map<String, List<Scan>> groups = new LinkedHashMap<String, List<Scan>>();
+      for (Scan scan : due) {
+        List<Scan> group = groups.get(scan.key);
+        if (group == null) {
+          group = new ArrayList<Scan>();
+          groups.put(scan.key, group);
+        }
+        group.add(scan);
+      }
+      List<Runnable> tasks = new ArrayList<Runnable>(groups.size());
+      final List<MatchBuffer> found = new ArrayList<MatchBuffer>(groups.size());
+      for (final List<Scan> group : groups.values()) {
+        long most = 0;
+        for (Scan scan : group) {
+          most = Math.max(most, scan.budget);
+        }
+        final long budget = most;
+        final Scan first = group.get(0);
+        final FindOptions options = first.options.copy();
+        final int n = found.size();
+        found.add(null);
+        tasks.add(new Runnable() {
+          @Override
+          public void run() {
+            // from its own start, not kept short by the searches before it
+            options.setDeadline(System.nanoTime() + budget);
+            found.set(n, JavaMatcher.find(source, first.target, options));
+          }
+        });
+      }
+      MatchPool.invokeAll(tasks);
+      synchronized (this) {
+        ticks++;
+        searches += tasks.size();
+        scanned += due.size();
+      }
+      int i = 0;
+      for (List<Scan> group : groups.values()) {
+        MatchBuffer matches = found.get(i++);
+        for (Scan scan : group) {
+          scan.budget = matches.isPartial()
+                  ? 2 * scan.budget : Math.max(scan.period, scan.budget / 2);
+          if (!scan.active) {
+            continue;
+          }
+          MatchBuffer own = matches;
+          if (group.size() > 1) {
+            // each listener may change its matches
+            own = new MatchBuffer(matches.size());
+            own.addAll(matches);
+          }
+          try {
+            scan.listener.scanned(scan, own);
+          } catch (RuntimeException e) {
+            Debug.error("ScanScheduler: listener: %s", e);
+          }
+        }
+      }
+    } finally {
+      MatArena.release(frame);
+    }
+  }
+
+  private static long area(FindOptions options, int w, int h) {
+    int[] r = options.getRegion(w, h);
+    return r == null ? (long) w * h : (long) r[2] * r[3];
+  }
+
+  /**
+   * @return frames captured and searched
+   */
+  public synchronized long getTicks() {
+    return ticks;
+  }
+
+  /**
+   * @return searches done (one per frame for the scans making the same search)
+   */
+  public synchronized long getSearches() {
+    return searches;
+  }
+
+  /**
+   * @return scans served (listener calls)
+   */
+  public synchronized long getScanned() {
+    return scanned;
+  }
+
+  public synchronized void resetCounters() {
+    ticks = searches = scanned = 0;
+  }
+
+  public synchronized String getStatistics() {
+    return String.format("ScanScheduler: %d scans frames: %d searches: %d scanned: %d",
+            scans.size(), ticks, searches, scanned);
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.List;
+
+/**
+ * an IMatcher not known to be thread safe (not a ThreadSafeMatcher), whose searches run one
+ * at a time (locked on the matcher)
+ */
+class SerializedMatcher implements ThreadSafeMatcher {
+
+  private final IMatcher matcher;
+
+  SerializedMatcher(IMatcher matcher) {
+    this.matcher = matcher;
+  }
+
+  /**
+   * @return matcher itself if it is thread safe, otherwise wrapped
+   */
+  static IMatcher of(IMatcher matcher) {
+    return matcher instanceof ThreadSafeMatcher ? matcher : new SerializedMatcher(matcher);
+  }
+
+  IMatcher getMatcher() {
+    return matcher;
+  }
+
+  @Override
+  public String getName() {
+    return matcher.getName();
+  }
+
+  @Override
+  public FindResults find(FindInput q) {
+    synchronized (matcher) {
+      return matcher.find(q);
+    }
+  }
+
+  @Override
+  public MatchBuffer findMatches(FindInput q) {
+    synchronized (matcher) {
+      return matcher.findMatches(q);
+    }
+  }
+
+  @Override
+  public List<FindResults> findMany(Mat source, List<FindInput> targets) {
+    synchronized (matcher) {
+      return matcher.findMany(source, targets);
+    }
+  }
+}
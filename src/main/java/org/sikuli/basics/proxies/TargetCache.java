@@ -0,0 +1,328 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.imageio.ImageIO;
+import org.sikuli.basics.Settings;
+
+/**
+ * keeps targets ready for matching (pixels, prepared MatchTarget with its pyramid levels and
+ * spectra, native Mat on request), so a pattern used again is neither decoded, converted nor
+ * prepared again<br />
+ * image files are known by path, modification time and length, other images by a hash of their
+ * pixels<br />
+ * least recently used entries are evicted, when the estimated memory exceeds
+ * Settings.TargetCacheSize (MB)<br />
+ * all methods are thread safe
+ */
+public class TargetCache {
+
+  private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  private static final Map<PixelMat, Entry> byPixels = new WeakHashMap<PixelMat, Entry>();
+  private static long hits = 0;
+  private static long misses = 0;
+  private static long evictions = 0;
+
+  /**
+   * a cached target
+   */
+  public static class Entry {
+
+    private final String key;
+    private final PixelMat pixels;
+    private final MatchTarget target;
+    private Mat mat = null;
+
+    private Entry(String key, PixelMat pixels) {
+      this.key = key;
+      this.pixels = pixels;
+      target = new MatchTarget(pixels);
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public PixelMat getPixels() {
+      return pixels;
+    }
+
+    /**
+     * @return the target prepared for the Java matchers
+     */
+    public MatchTarget getTarget() {
+      return target;
+    }
+
+    /**
+     * @return the native Mat of the target, created with the first call, its pixels are those of
+     * the entry (a search with it finds the prepared target)<br />
+     * it is not deleted by the cache (a caller may still hold it), an evicted entry only drops it
+     * and NativeMemory frees it, when it is no longer referenced
+     */
+    public synchronized Mat getMat() {
+      if (mat == null) {
+        mat = Vision.createMat(pixels.getHeight(), pixels.getWidth(), pixels.getData(), true);
+        mat.setPixels(pixels);
+      }
+      return mat;
+    }
+
+    private synchronized void dispose() {
+      // handed out by getMat(), freed by NativeMemory when unreachable
+      mat = null;
+    }
+
+    /**
+     * @return estimated memory: pixels (Java and native) and the prepared target
+     */
+    public synchronized long footprint() {
+      long n = (long) pixels.getData().length * (mat == null ? 1 : 2);
+      return n + target.footprint();
+    }
+  }
+
+  /**
+   * @return the cached target for the image file (read and prepared if not cached or changed)
+   * @throws IOException if the file cannot be read as an image
+   */
+  public static Entry get(File file) throws IOException {
+    String key = "file:" + file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
+    Entry e = lookup(key);
+    if (e != null) {
+      return e;
+    }
+    BufferedImage img = ImageIO.read(file);
+    if (img == null) {
+      throw new IOException("TargetCache: not an image: " + file);
+    }
+    return add(key, pixelsOf(img));
+  }
+
+  /**
+   * @return the cached target with the same pixels (prepared if not cached)
+   */
+  public static Entry get(BufferedImage img) {
+    return get(pixelsOf(img));
+  }
+
+  /**
+   * @return the cached target with the same pixels (prepared if not cached)
+   */
+  public static Entry get(PixelMat pixels) {
+    synchronized (TargetCache.class) {
+      Entry e = byPixels.get(pixels);
+      if (e != null) {
+        hits++;
+        return e;
+      }
+    }
+    String key = keyOf(pixels);
+    Entry e = lookup(key);
+    if (e != null && !sameContent(e.getPixels(), pixels)) {
+      // hash collision: prepared, but not cached
+      return new Entry(key, compact(pixels));
+    }
+    if (e == null) {
+      e = add(key, compact(pixels));
+    }
+    synchronized (TargetCache.class) {
+      byPixels.put(pixels, e);
+    }
+    return e;
+  }
+
+  /**
+   * @return the prepared target for these pixels, from the cache if a cached entry has the same
+   * pixels (the same PixelMat or an equal one), otherwise prepared now (not cached)
+   */
+  public static MatchTarget prepared(PixelMat pixels) {
+    synchronized (TargetCache.class) {
+      Entry e = byPixels.get(pixels);
+      if (e != null) {
+        hits++;
+        return e.getTarget();
+      }
+    }
+    Entry e = lookup(keyOf(pixels));
+    if (e == null || !sameContent(e.getPixels(), pixels)) {
+      return new MatchTarget(pixels);
+    }
+    synchronized (TargetCache.class) {
+      if (entries.get(e.getKey()) == e) {
+        // known by identity from now on
+        byPixels.put(pixels, e);
+      }
+    }
+    return e.getTarget();
+  }
+
+  /**
+   * @return the key of a target by its pixels (size and hash, the same for the same pixels
+   * in any run)
+   */
+  static String keyOf(PixelMat pixels) {
+    return "pixels:" + pixels.getWidth() + "x" + pixels.getHeight() + "x"
+            + pixels.getChannels() + ":" + Long.toHexString(hash(pixels));
+  }
+
+  private static PixelMat pixelsOf(BufferedImage img) {
+    return new PixelMat(img.getWidth(), img.getHeight(), PixelMat.RGBA,
+            OpenCV.convertBufferedImageToByteArray(img));
+  }
+
+  private static synchronized Entry lookup(String key) {
+    Entry e = entries.get(key);
+    if (e != null) {
+      hits++;
+    }
+    return e;
+  }
+
+  private static Entry add(String key, PixelMat pixels) {
+    // prepared outside the lock, a concurrent add of the same key wins
+    Entry created = new Entry(key, pixels);
+    synchronized (TargetCache.class) {
+      Entry e = entries.get(key);
+      if (e == null) {
+        misses++;
+        e = created;
+        entries.put(key, e);
+        byPixels.put(e.getPixels(), e);
+      }
+      evict();
+      return e;
+    }
+  }
+
+  /**
+   * removes least recently used entries until the footprint is within Settings.TargetCacheSize
+   * (the entry used last is always kept), their native Mats are left to NativeMemory
+   */
+  public static synchronized void evict() {
+    long max = (long) Settings.TargetCacheSize * 1024 * 1024;
+    long total = getFootprint();
+    Iterator<Entry> it = entries.values().iterator();
+    List<Entry> evicted = new ArrayList<Entry>();
+    while (total > max && entries.size() > 1 && it.hasNext()) {
+      Entry e = it.next();
+      total -= e.footprint();
+      it.remove();
+      evicted.add(e);
+      evictions++;
+    }
+    if (!evicted.isEmpty()) {
+      // the pixels given to get() for an entry are keys too
+      Iterator<Entry> keys = byPixels.values().iterator();
+      while (keys.hasNext()) {
+        if (evicted.contains(keys.next())) {
+          keys.remove();
+        }
+      }
+      for (Entry e : evicted) {
+        e.dispose();
+      }
+    }
+  }
+
+  /**
+   * removes all entries, their native Mats are left to NativeMemory
+   */
+  public static synchronized void clear() {
+    for (Entry e : entries.values()) {
+      e.dispose();
+    }
+    entries.clear();
+    byPixels.clear();
+  }
+
+  public static synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return estimated memory held by the cached targets
+   */
+  public static synchronized long getFootprint() {
+    long total = 0;
+    for (Entry e : entries.values()) {
+      total += e.footprint();
+    }
+    return total;
+  }
+
+  public static synchronized long getHits() {
+    return hits;
+  }
+
+  public static synchronized long getMisses() {
+    return misses;
+  }
+
+  public static synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public static synchronized void resetCounters() {
+    hits = misses = evictions = 0;
+  }
+
+  public static synchronized String getStatistics() {
+    return String.format("TargetCache: %d entries (%.1f MB) hits: %d misses: %d evictions: %d",
+            entries.size(), getFootprint() / 1048576.0, hits, misses, evictions);
+  }
+
+  /**
+   * 64 bit FNV-1a over the pixel bytes
+   */
+  private static long hash(PixelMat p) {
+    byte[] data = p.getData();
+    long h = 0xcbf29ce484222325L;
+    int rowBytes = p.getWidth() * p.getChannels();
+    for (int y = 0; y < p.getHeight(); y++) {
+      int i = p.index(0, y);
+      for (int end = i + rowBytes; i < end; i++) {
+        h ^= data[i];
+        h *= 0x100000001b3L;
+      }
+    }
+    return h;
+  }
+
+  private static boolean sameContent(PixelMat a, PixelMat b) {
+    if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()
+            || a.getChannels() != b.getChannels()) {
+      return false;
+    }
+    byte[] da = a.getData(), db = b.getData();
+    int rowBytes = a.getWidth() * a.getChannels();
+    for (int y = 0; y < a.getHeight(); y++) {
+      for (int i = a.index(0, y), j = b.index(0, y), end = i + rowBytes; i < end; i++, j++) {
+        if (da[i] != db[j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static PixelMat compact(PixelMat p) {
+    if (p.getOffset() == 0 && p.getStride() == p.getWidth() * p.getChannels()
+            && p.getData().length == p.getStride() * p.getHeight()) {
+      return p;
+    }
+    return new PixelMat(p.getWidth(), p.getHeight(), p.getChannels(),
+            p.copy(0, 0, p.getWidth(), p.getHeight()));
+  }
+}
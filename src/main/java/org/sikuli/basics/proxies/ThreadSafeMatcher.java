@@ -0,0 +1,13 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+/**
+ * marks an IMatcher that may search from several threads at once (as JavaMatcher, and
+ * NativeMatcher that serializes the native calls itself)<br />
+ * Matchers makes all calls of other matchers run one at a time
+ */
+public interface ThreadSafeMatcher extends IMatcher {
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+/**
+ * the best k non overlapping positions of a target seen so far, in a bounded min-heap of
+ * primitive arrays (memory O(k)), the root is the k-th best score<br />
+ * a position overlapping a better one kept is dropped, one overlapping worse ones replaces them<br />
+ * the heaps of the parallel parts of a scan share a Floor, raised to the k-th best of a full
+ * heap: a position of the same size overlaps at most 4 of its k non overlapping positions, so
+ * removing the overlaps of the whole scan best first leaves at least k / 4 matches scoring at
+ * least the floor
+ */
+public class TopK {
+
+  /**
+   * the lowest score still worth scoring, shared by the parts of one scan
+   */
+  public static class Floor {
+
+    private volatile double value;
+
+    public Floor(double minScore) {
+      value = minScore;
+    }
+
+    public double get() {
+      return value;
+    }
+
+    synchronized void raise(double v) {
+      if (v > value) {
+        value = v;
+      }
+    }
+  }
+
+  private final int k, w, h;
+  private final int[] xs, ys;
+  private final double[] scores;
+  private final Floor floor;
+  private int size = 0;
+
+  /**
+   * @param k number of positions kept
+   * @param w width of the target
+   * @param h height of the target
+   */
+  public TopK(int k, int w, int h, Floor floor) {
+    this.k = Math.max(1, k);
+    this.w = w;
+    this.h = h;
+    this.floor = floor;
+    xs = new int[this.k];
+    ys = new int[this.k];
+    scores = new double[this.k];
+  }
+
+  /**
+   * @return a position scoring less cannot enter (k-th best score or the floor)
+   */
+  public double getMinScore() {
+    double f = floor.get();
+    return size < k ? f : Math.max(f, scores[0]);
+  }
+
+  /**
+   * @return true if the position was kept
+   */
+  public boolean offer(int x, int y, double score) {
+    if (score < getMinScore() || (size == k && score <= scores[0])) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (overlaps(i, x, y) && scores[i] >= score) {
+        return false;
+      }
+    }
+    // removing reorders the heap: look again from the start
+    for (int i = 0; i < size; i++) {
+      if (overlaps(i, x, y)) {
+        remove(i);
+        i = -1;
+      }
+    }
+    if (size == k) {
+      remove(0);
+    }
+    int i = size++;
+    xs[i] = x;
+    ys[i] = y;
+    scores[i] = score;
+    up(i);
+    if (size == k) {
+      floor.raise(scores[0]);
+    }
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * adds the positions kept to found (unsorted)
+   */
+  public void drainTo(MatchBuffer found) {
+    for (int i = 0; i < size; i++) {
+      found.add(xs[i], ys[i], w, h, scores[i]);
+    }
+    size = 0;
+  }
+
+  private boolean overlaps(int i, int x, int y) {
+    return Math.abs(xs[i] - x) < w && Math.abs(ys[i] - y) < h;
+  }
+
+  private void remove(int i) {
+    size--;
+    if (i == size) {
+      return;
+    }
+    move(size, i);
+    up(i);
+    down(i);
+  }
+
+  private void up(int i) {
+    while (i > 0) {
+      int p = (i - 1) / 2;
+      if (scores[p] <= scores[i]) {
+        return;
+      }
+      swap(i, p);
+      i = p;
+    }
+  }
+
+  private void down(int i) {
+    while (true) {
+      int c = 2 * i + 1;
+      if (c >= size) {
+        return;
+      }
+      if (c + 1 < size && scores[c + 1] < scores[c]) {
+        c++;
+      }
+      if (scores[i] <= scores[c]) {
+        return;
+      }
+      swap(i, c);
+      i = c;
+    }
+  }
+
+  private void move(int from, int to) {
+    xs[to] = xs[from];
+    ys[to] = ys[from];
+    scores[to] = scores[from];
+  }
+
+  private void swap(int a, int b) {
+    int x = xs[a], y = ys[a];
+    double s = scores[a];
+    move(b, a);
+    xs[b] = x;
+    ys[b] = y;
+    scores[b] = s;
+  }
+}
@@ -8,39 +8,88 @@
 
 package org.sikuli.basics.proxies;
 
-public class Vision {
+import java.io.Closeable;
+import java.util.List;
+
+public class Vision implements Closeable {
   private long swigCPtr;
   protected boolean swigCMemOwn;
+  NativeMemory.Ref nativeRef = null;
+  private static final NativeMemory.Deleter DELETER = new NativeMemory.Deleter() {
+    @Override
+    public void delete(long cPtr) {
+      VisionProxyJNI.delete_Vision(cPtr);
+    }
+  };
 
   protected Vision(long cPtr, boolean cMemoryOwn) {
     swigCMemOwn = cMemoryOwn;
     swigCPtr = cPtr;
+    if (cMemoryOwn) {
+      nativeRef = NativeMemory.track(this, cPtr, DELETER);
+    }
   }
 
   protected static long getCPtr(Vision obj) {
     return (obj == null) ? 0 : obj.swigCPtr;
   }
 
-  protected void finalize() {
-    delete();
-  }
-
   public synchronized void delete() {
     if (swigCPtr != 0) {
       if (swigCMemOwn) {
         swigCMemOwn = false;
-        VisionProxyJNI.delete_Vision(swigCPtr);
+        NativeMemory.free(nativeRef);
       }
       swigCPtr = 0;
     }
   }
 
+  /**
+   * frees the native object (as delete())
+   */
+  @Override
+  public void close() {
+    delete();
+  }
+
+  /**
+   * searches with the matcher selected by Matchers.select() (default: native)
+   */
   public static FindResults find(FindInput q) {
-    return new FindResults(VisionProxyJNI.Vision_find(FindInput.getCPtr(q), q), true);
+    return Matchers.get().find(q);
+  }
+
+  /**
+   * searches all the targets in the one source, with the Java matcher the source is prepared
+   * only once and the targets are searched in parallel
+   *
+   * @return the FindResults for each FindInput in the order of targets
+   */
+  public static List<FindResults> findMany(Mat source, List<FindInput> targets) {
+    return Matchers.get().findMany(source, targets);
+  }
+
+  /**
+   * as find(), but the matches are returned in Java arrays: no native wrapper per match
+   * and nothing left to be freed after garbage collection
+   */
+  public static MatchBuffer findMatches(FindInput q) {
+    return Matchers.get().findMatches(q);
+  }
+
+  /**
+   * the native search, one at a time (see NativeMatcher)
+   */
+  public static FindResults findNative(FindInput q) {
+    synchronized (NativeMatcher.LOCK) {
+      return new FindResults(VisionProxyJNI.Vision_find(FindInput.getCPtr(q), q), true);
+    }
   }
 
   public static FindResults findChanges(FindInput q) {
-    return new FindResults(VisionProxyJNI.Vision_findChanges(FindInput.getCPtr(q), q), true);
+    synchronized (NativeMatcher.LOCK) {
+      return new FindResults(VisionProxyJNI.Vision_findChanges(FindInput.getCPtr(q), q), true);
+    }
   }
 
   public static double compare(Mat m1, Mat m2) {
@@ -79,8 +128,27 @@ public class Vision {
     return VisionProxyJNI.Vision_recognizeWord(Mat.getCPtr(image), image);
   }
 
+  /**
+   * the native Mat gets a copy of the pixels, with a matcher other than the native one selected
+   * (Matchers.select()) the Mat keeps another copy for it (Mat.getPixels()), so the caller may
+   * reuse data
+   */
   public static Mat createMat(int _rows, int _cols, byte[] _data) {
-    return new Mat(VisionProxyJNI.Vision_createMat(_rows, _cols, _data), true);
+    return createMat(_rows, _cols, _data, false);
+  }
+
+  /**
+   * @param owned true: data is not used by the caller any more, it is kept as the pixels of the
+   * Mat without a copy
+   */
+  static Mat createMat(int _rows, int _cols, byte[] _data, boolean owned) {
+    Mat m = new Mat(VisionProxyJNI.Vision_createMat(_rows, _cols, _data), true);
+    NativeMemory.setBytes(m.nativeRef, _data.length);
+    if (_rows > 0 && _cols > 0 && Matchers.get() != Matchers.getNative()) {
+      byte[] data = owned ? _data : _data.clone();
+      m.setPixels(new PixelMat(_cols, _rows, data.length / (_rows * _cols), data));
+    }
+    return m;
   }
 
   public static void setParameter(String param, float val) {
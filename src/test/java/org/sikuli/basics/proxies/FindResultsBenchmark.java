@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+/**
+ * reading the FindResults of a find all once: per element (get(i) and 5 native getters per
+ * result) against toMatchBuffer() (export() through the same getters, then one MatchCursor
+ * pass)<br />
+ * both read every result once, so this shows the cost of the copy, not a saving of native calls<br />
+ * needs the native library: java -Djava.library.path=... FindResultsBenchmark [results]
+ */
+public class FindResultsBenchmark {
+
+  private static final int ROUNDS = 200;
+
+  public static void main(String[] args) {
+    System.loadLibrary("VisionProxy");
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    FindResults results = new FindResults();
+    for (int i = 0; i < n; i++) {
+      FindResult r = new FindResult(i % 640, i / 640, 32, 24, 1 - i / (double) n);
+      results.add(r);
+      r.delete();
+    }
+    for (int warm = 0; warm < 3; warm++) {
+      perElement(results);
+      exported(results);
+    }
+    long t0 = System.nanoTime();
+    double a = perElement(results);
+    long t1 = System.nanoTime();
+    double b = exported(results);
+    long t2 = System.nanoTime();
+    if (a != b) {
+      throw new IllegalStateException("results differ: " + a + " " + b);
+    }
+    System.out.printf("%d results, one pass: per element %.1f us, exported %.1f us%n", n,
+            (t1 - t0) / 1e3 / ROUNDS, (t2 - t1) / 1e3 / ROUNDS);
+    results.delete();
+  }
+
+  private static double perElement(FindResults results) {
+    double sum = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      int n = (int) results.size();
+      for (int i = 0; i < n; i++) {
+        FindResult r = results.get(i);
+        sum += r.getX() + r.getY() + r.getW() + r.getH() + r.getScore();
+      }
+    }
+    return sum;
+  }
+
+  private static double exported(FindResults results) {
+    double sum = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      MatchCursor c = results.toMatchBuffer().cursor();
+      while (c.next()) {
+        sum += c.getX() + c.getY() + c.getW() + c.getH() + c.getScore();
+      }
+    }
+    return sum;
+  }
+}
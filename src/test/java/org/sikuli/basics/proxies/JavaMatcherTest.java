@@ -0,0 +1,560 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.sikuli.basics.Settings;
+import static org.junit.Assert.*;
+
+/**
+ * the search modes of the Java matcher on synthetic images, checked against a brute force
+ * score of every position (brute())
+ */
+public class JavaMatcherTest {
+
+  // the Java matcher correlates in float
+  private static final double TOLERANCE = 1e-4;
+
+  /**
+   * smooth blobs over a light noise, so shifted positions score high and overlap
+   */
+  static PixelMat smooth(int w, int h, Random rnd, int blobs) {
+    double[] f = new double[w * h];
+    for (int b = 0; b < blobs; b++) {
+      double cx = rnd.nextInt(w), cy = rnd.nextInt(h), s = 8 + rnd.nextInt(20);
+      double a = rnd.nextDouble() * 200 - 100;
+      for (int y = 0; y < h; y++) {
+        for (int x = 0; x < w; x++) {
+          double d = ((x - cx) * (x - cx) + (y - cy) * (y - cy)) / (2 * s * s);
+          if (d < 20) {
+            f[y * w + x] += a * Math.exp(-d);
+          }
+        }
+      }
+    }
+    byte[] data = new byte[4 * w * h];
+    for (int i = 0; i < w * h; i++) {
+      int v = (int) Math.max(0, Math.min(255, 128 + f[i] + rnd.nextInt(3)));
+      data[4 * i] = (byte) v;
+      data[4 * i + 1] = (byte) (255 - v);
+      data[4 * i + 2] = (byte) (v / 2);
+      data[4 * i + 3] = (byte) 255;
+    }
+    return new PixelMat(w, h, PixelMat.RGBA, data);
+  }
+
+  static void assertSameMatches(String what, MatchBuffer expected, MatchBuffer actual) {
+    assertEquals(what + ": " + actual + " expected " + expected, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      String m = what + " match " + i + ": " + actual + " expected " + expected;
+      assertEquals(m, expected.getX(i), actual.getX(i));
+      assertEquals(m, expected.getY(i), actual.getY(i));
+      assertEquals(m, expected.getScore(i), actual.getScore(i), 1e-9);
+    }
+  }
+
+  /**
+   * a smooth target, its top left corner transparent if masked
+   */
+  static PixelMat patch(int w, int h, Random rnd, boolean masked) {
+    PixelMat p = smooth(w, h, rnd, 3);
+    if (masked) {
+      byte[] data = p.getData();
+      for (int y = 0; y < h / 3; y++) {
+        for (int x = 0; x < w / 3; x++) {
+          data[p.index(x, y) + 3] = 0;
+        }
+      }
+    }
+    return p;
+  }
+
+  /**
+   * a target of one color
+   */
+  static PixelMat plain(int w, int h) {
+    byte[] data = new byte[4 * w * h];
+    for (int i = 0; i < w * h; i++) {
+      data[4 * i] = (byte) 30;
+      data[4 * i + 1] = (byte) 220;
+      data[4 * i + 2] = (byte) 240;
+      data[4 * i + 3] = (byte) 255;
+    }
+    return new PixelMat(w, h, PixelMat.RGBA, data);
+  }
+
+  /**
+   * a smooth source with copies of target at non overlapping places, copy i with noise of
+   * up to 6 * i added to its color channels (so the copies score differently)
+   */
+  static PixelMat scene(int w, int h, Random rnd, PixelMat target, int copies) {
+    PixelMat source = smooth(w, h, rnd, 10);
+    List<int[]> placed = new ArrayList<int[]>();
+    int tw = target.getWidth(), th = target.getHeight();
+    while (placed.size() < copies) {
+      int x = rnd.nextInt(w - tw + 1), y = rnd.nextInt(h - th + 1);
+      boolean free = true;
+      for (int[] p : placed) {
+        free &= Math.abs(p[0] - x) >= tw || Math.abs(p[1] - y) >= th;
+      }
+      if (free) {
+        paste(source, target, x, y, rnd, 6 * placed.size());
+        placed.add(new int[]{x, y});
+      }
+    }
+    return source;
+  }
+
+  // the opaque pixels of target onto source at (x, y)
+  static void paste(PixelMat source, PixelMat target, int x, int y, Random rnd, int noise) {
+    byte[] data = source.getData();
+    for (int ty = 0; ty < target.getHeight(); ty++) {
+      for (int tx = 0; tx < target.getWidth(); tx++) {
+        if (target.get(tx, ty, 3) < MatchTarget.OPAQUE) {
+          continue;
+        }
+        int i = source.index(x + tx, y + ty);
+        for (int c = 0; c < 3; c++) {
+          int v = target.get(tx, ty, c) + (noise == 0 ? 0 : rnd.nextInt(2 * noise + 1) - noise);
+          data[i + c] = (byte) Math.max(0, Math.min(255, v));
+        }
+      }
+    }
+  }
+
+  /**
+   * the score of the target at (x, y), computed directly: normalized cross correlation over the
+   * color channels of the opaque target pixels (all, if all or none are opaque), a target of
+   * one color by 1 - root mean square difference / 255
+   */
+  static double bruteScore(PixelMat source, PixelMat target, int x, int y) {
+    return bruteScore(source, target, opaque(target), x, y);
+  }
+
+  private static List<int[]> opaque(PixelMat target) {
+    int w = target.getWidth(), h = target.getHeight();
+    List<int[]> points = new ArrayList<int[]>();
+    for (int ty = 0; ty < h; ty++) {
+      for (int tx = 0; tx < w; tx++) {
+        if (target.getChannels() < 4 || target.get(tx, ty, 3) >= MatchTarget.OPAQUE) {
+          points.add(new int[]{tx, ty});
+        }
+      }
+    }
+    if (points.isEmpty() || points.size() == w * h) {
+      points.clear();
+      for (int ty = 0; ty < h; ty++) {
+        for (int tx = 0; tx < w; tx++) {
+          points.add(new int[]{tx, ty});
+        }
+      }
+    }
+    return points;
+  }
+
+  private static double bruteScore(PixelMat source, PixelMat target, List<int[]> points,
+          int x, int y) {
+    int nc = Math.min(3, target.getChannels());
+    double n = points.size();
+    double[] tm = new double[nc], sm = new double[nc];
+    for (int[] p : points) {
+      for (int c = 0; c < nc; c++) {
+        tm[c] += target.get(p[0], p[1], c) / n;
+        sm[c] += source.get(x + p[0], y + p[1], c) / n;
+      }
+    }
+    double tt = 0, ss = 0, st = 0, ssd = 0;
+    for (int[] p : points) {
+      for (int c = 0; c < nc; c++) {
+        double t = target.get(p[0], p[1], c) - tm[c];
+        double v = source.get(x + p[0], y + p[1], c);
+        tt += t * t;
+        ss += (v - sm[c]) * (v - sm[c]);
+        st += (v - sm[c]) * t;
+        ssd += (v - tm[c]) * (v - tm[c]);
+      }
+    }
+    if (tt < 0.01 * n * nc) {
+      return 1 - Math.sqrt(ssd / (n * nc)) / 255;
+    }
+    if (ss < 1e-6) {
+      return 0;
+    }
+    return Math.min(1, st / Math.sqrt(ss * tt));
+  }
+
+  /**
+   * find all done directly: every position scored, those scoring at least similarity taken
+   * best first, if they do not overlap one taken before
+   *
+   * @param limit max number of matches (0: no limit)
+   */
+  static MatchBuffer brute(PixelMat source, PixelMat target, double similarity, int limit) {
+    final int w = target.getWidth(), h = target.getHeight();
+    List<int[]> points = opaque(target);
+    List<double[]> all = new ArrayList<double[]>();
+    for (int y = 0; y + h <= source.getHeight(); y++) {
+      for (int x = 0; x + w <= source.getWidth(); x++) {
+        double s = bruteScore(source, target, points, x, y);
+        if (s >= similarity) {
+          all.add(new double[]{s, x, y});
+        }
+      }
+    }
+    Collections.sort(all, new Comparator<double[]>() {
+      @Override
+      public int compare(double[] a, double[] b) {
+        return Double.compare(b[0], a[0]);
+      }
+    });
+    MatchBuffer kept = new MatchBuffer();
+    for (double[] m : all) {
+      if (limit > 0 && kept.size() >= limit) {
+        break;
+      }
+      boolean free = true;
+      for (int i = 0; i < kept.size() && free; i++) {
+        free = Math.abs(kept.getX(i) - m[1]) >= w || Math.abs(kept.getY(i) - m[2]) >= h;
+      }
+      if (free) {
+        kept.add((int) m[1], (int) m[2], w, h, m[0]);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * @return the first k of the matches of brute() (as brute() with limit k, the matches are
+   * taken best first)
+   */
+  static MatchBuffer first(MatchBuffer all, int k) {
+    MatchBuffer some = new MatchBuffer(k);
+    for (int i = 0; i < Math.min(k, all.size()); i++) {
+      some.add(all.getX(i), all.getY(i), all.getW(i), all.getH(i), all.getScore(i));
+    }
+    return some;
+  }
+
+  /**
+   * the same places (in any order, the copies scoring 1 may be sorted differently) with the
+   * same scores, the actual ones best first
+   */
+  static void assertBrute(String what, MatchBuffer expected, MatchBuffer actual) {
+    String m = what + ": " + actual + " expected " + expected;
+    assertEquals(m, expected.size(), actual.size());
+    int[] e = byPlace(expected), a = byPlace(actual);
+    for (int i = 0; i < e.length; i++) {
+      assertEquals(m, expected.getX(e[i]), actual.getX(a[i]));
+      assertEquals(m, expected.getY(e[i]), actual.getY(a[i]));
+      assertEquals(m, expected.getScore(e[i]), actual.getScore(a[i]), TOLERANCE);
+    }
+    for (int i = 1; i < actual.size(); i++) {
+      assertTrue(m, actual.getScore(i - 1) >= actual.getScore(i));
+    }
+  }
+
+  private static int[] byPlace(final MatchBuffer found) {
+    Integer[] order = new Integer[found.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int ya = found.getY(a), yb = found.getY(b);
+        return ya != yb ? ya - yb : found.getX(a) - found.getX(b);
+      }
+    });
+    int[] ints = new int[order.length];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = order[i];
+    }
+    return ints;
+  }
+
+  /**
+   * a single find: the best score, scored so at the place found
+   */
+  static void assertBest(String what, PixelMat source, PixelMat target, MatchBuffer best,
+          MatchBuffer actual) {
+    String m = what + ": " + actual + " expected " + best;
+    assertEquals(m, best.isEmpty() ? 0 : 1, actual.size());
+    if (!best.isEmpty()) {
+      assertEquals(m, best.getScore(0), actual.getScore(0), TOLERANCE);
+      assertEquals(m, bruteScore(source, target, actual.getX(0), actual.getY(0)),
+              actual.getScore(0), TOLERANCE);
+    }
+  }
+
+  /**
+   * single find and find all of target in scenes with copies of it against brute()
+   */
+  private static void checkModes(String what, PixelMat target, FindOptions options, int seeds) {
+    checkModes(what, 160, 120, target, options, seeds);
+  }
+
+  private static void checkModes(String what, int w, int h, PixelMat target, FindOptions options,
+          int seeds) {
+    double similarity = options.getSimilarity();
+    for (int seed = 0; seed < seeds; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(w, h, rnd, target, 3);
+      String m = what + " seed " + seed;
+      MatchBuffer all = brute(source, target, similarity, 0);
+      assertBest(m, source, target, first(all, 1),
+              JavaMatcher.find(source, target, options.copy()));
+      assertBrute(m + " all", all,
+              JavaMatcher.find(source, target, options.copy().setFindAll(true)));
+      assertBrute(m + " limit 2", first(all, 2),
+              JavaMatcher.find(source, target, options.copy().setFindAll(true).setLimit(2)));
+    }
+  }
+
+  @Test
+  public void plainSearch() {
+    checkModes("plain", patch(24, 20, new Random(100), false),
+            new FindOptions().setSimilarity(0.7), 5);
+  }
+
+  @Test
+  public void withoutPrescreen() {
+    boolean prescreen = Settings.Prescreen;
+    Settings.Prescreen = false;
+    try {
+      checkModes("no prescreen", patch(24, 20, new Random(101), false),
+              new FindOptions().setSimilarity(0.7), 3);
+    } finally {
+      Settings.Prescreen = prescreen;
+    }
+  }
+
+  @Test
+  public void tilesInParallel() {
+    int tile = Settings.FindAllTileSize, threads = MatchPool.getThreads();
+    Settings.FindAllTileSize = 32;
+    MatchPool.setThreads(3);
+    try {
+      checkModes("tiles", 300, 140, patch(24, 20, new Random(102), false),
+              new FindOptions().setSimilarity(0.7), 2);
+    } finally {
+      Settings.FindAllTileSize = tile;
+      MatchPool.setThreads(threads);
+    }
+  }
+
+  @Test
+  public void fft() {
+    int area = Settings.FFTMinTargetArea;
+    Settings.FFTMinTargetArea = 24 * 20;
+    try {
+      PixelMat target = patch(24, 20, new Random(103), false);
+      assertTrue(JavaMatcher.useFFT(new MatchTarget(target)));
+      // more than one block
+      checkModes("fft", 300, 140, target, new FindOptions().setSimilarity(0.7), 2);
+    } finally {
+      Settings.FFTMinTargetArea = area;
+    }
+  }
+
+  @Test
+  public void masked() {
+    PixelMat target = patch(24, 21, new Random(104), true);
+    assertTrue(new MatchTarget(target).isMasked());
+    checkModes("masked", target, new FindOptions().setSimilarity(0.7), 3);
+  }
+
+  @Test
+  public void plainColor() {
+    PixelMat target = plain(16, 12);
+    assertTrue(new MatchTarget(target).isPlain());
+    checkModes("one color", target, new FindOptions().setSimilarity(0.9), 3);
+  }
+
+  @Test
+  public void pyramid() {
+    // coarse to fine finds matches, not always the best: only the candidates of the coarse
+    // level are verified
+    PixelMat target = patch(32, 32, new Random(105), false);
+    for (int seed = 0; seed < 3; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(160, 120, rnd, target, 3);
+      FindOptions options = new FindOptions().setSimilarity(0.7).setPyramidLevels(2);
+      assertMatches("seed " + seed, source, target, 0.7,
+              JavaMatcher.find(source, target, options.copy()));
+      assertMatches("seed " + seed + " all", source, target, 0.7,
+              JavaMatcher.find(source, target, options.copy().setFindAll(true)));
+    }
+  }
+
+  /**
+   * at least one match, all scoring at least similarity as found and not overlapping
+   */
+  static void assertMatches(String what, PixelMat source, PixelMat target, double similarity,
+          MatchBuffer actual) {
+    String m = what + ": " + actual;
+    assertFalse(m, actual.isEmpty());
+    for (int i = 0; i < actual.size(); i++) {
+      double s = bruteScore(source, target, actual.getX(i), actual.getY(i));
+      assertEquals(m, s, actual.getScore(i), TOLERANCE);
+      assertTrue(m, s >= similarity);
+      for (int k = 0; k < i; k++) {
+        assertEquals(m, 0, actual.overlap(i, k), 0);
+      }
+    }
+  }
+
+  @Test
+  public void exact() {
+    // without noise all copies score 1
+    Random rnd = new Random(106);
+    PixelMat target = patch(24, 20, rnd, false);
+    PixelMat source = smooth(160, 120, rnd, 10);
+    paste(source, target, 5, 7, rnd, 0);
+    paste(source, target, 100, 20, rnd, 0);
+    paste(source, target, 40, 90, rnd, 0);
+    double similarity = Settings.ExactMatchSimilarity;
+    FindOptions options = new FindOptions().setSimilarity(similarity);
+    MatchBuffer all = brute(source, target, similarity, 0);
+    assertBest("exact", source, target, first(all, 1),
+            JavaMatcher.find(source, target, options.copy()));
+    assertBrute("exact all", all,
+            JavaMatcher.find(source, target, options.copy().setFindAll(true)));
+    assertBrute("exact limit 3", first(all, 3),
+            JavaMatcher.find(source, target, options.copy().setFindAll(true).setLimit(3)));
+  }
+
+  @Test
+  public void topK() {
+    PixelMat target = patch(24, 20, new Random(107), false);
+    for (int seed = 0; seed < 5; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(160, 120, rnd, target, 3);
+      MatchBuffer all = brute(source, target, 0.6, 0);
+      for (int k = 1; k <= 4; k++) {
+        assertBrute("top " + k + " seed " + seed, first(all, k),
+                JavaMatcher.find(source, target, new FindOptions().setSimilarity(0.6).setTopK(k)));
+      }
+    }
+  }
+
+  @Test
+  public void findFirst() {
+    PixelMat target = patch(24, 20, new Random(108), false);
+    for (int seed = 0; seed < 5; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(160, 120, rnd, target, 3);
+      MatchBuffer first = JavaMatcher.find(source, target,
+              new FindOptions().setSimilarity(0.7).setFindFirst(true));
+      String m = "seed " + seed + ": " + first;
+      assertEquals(m, 1, first.size());
+      int x = first.getX(0), y = first.getY(0);
+      double s = bruteScore(source, target, x, y);
+      assertEquals(m, s, first.getScore(0), TOLERANCE);
+      assertTrue(m, s >= 0.7);
+      // climbed to a local maximum
+      for (int dy = -1; dy <= 1; dy++) {
+        for (int dx = -1; dx <= 1; dx++) {
+          if (x + dx >= 0 && y + dy >= 0 && x + dx + 24 <= 160 && y + dy + 20 <= 120) {
+            assertTrue(m, bruteScore(source, target, x + dx, y + dy) <= s + TOLERANCE);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void grayscale() {
+    PixelMat target = patch(24, 20, new Random(109), false);
+    for (int seed = 0; seed < 3; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(160, 120, rnd, target, 3);
+      FindOptions options = new FindOptions().setSimilarity(0.7).setGrayscale(true);
+      String m = "seed " + seed;
+      assertBest(m, source, target, brute(source, target, 0.7, 1),
+              JavaMatcher.find(source, target, options.copy()));
+      // the gray hits, scored again in color
+      assertMatches(m + " all", source, target, 0.7,
+              JavaMatcher.find(source, target, options.copy().setFindAll(true)));
+    }
+  }
+
+  @Test
+  public void colorFilter() {
+    PixelMat target = patch(24, 20, new Random(110), false);
+    for (int seed = 0; seed < 3; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(160, 120, rnd, target, 3);
+      assertBest("seed " + seed, source, target, brute(source, target, 0.7, 1),
+              JavaMatcher.find(source, target,
+              new FindOptions().setSimilarity(0.7).setColorFilter(true)));
+    }
+  }
+
+  @Test
+  public void region() {
+    PixelMat target = patch(24, 20, new Random(111), false);
+    for (int seed = 0; seed < 3; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = scene(160, 120, rnd, target, 3);
+      int rx = 20 + rnd.nextInt(20), ry = 10 + rnd.nextInt(20);
+      MatchBuffer expected = brute(source.view(rx, ry, 110, 90), target, 0.7, 0);
+      expected.translate(rx, ry);
+      assertBrute("seed " + seed, expected, JavaMatcher.find(source, target,
+              new FindOptions().setSimilarity(0.7).setFindAll(true).setRegion(rx, ry, 110, 90)));
+    }
+  }
+
+  @Test
+  public void multiScale() {
+    String file = Settings.ScaleCacheFile;
+    Settings.ScaleCacheFile = null;
+    try {
+      // noise: not like itself at another scale
+      byte[] pixels = new byte[4 * 20 * 16];
+      new Random(112).nextBytes(pixels);
+      for (int i = 3; i < pixels.length; i += 4) {
+        pixels[i] = (byte) 255;
+      }
+      PixelMat target = new PixelMat(20, 16, PixelMat.RGBA, pixels);
+      for (double scale : new double[]{1.0, 1.25, 0.8}) {
+        ScaleCache.clear();
+        Random rnd = new Random(113);
+        PixelMat scaled = new MatchTarget(target).getScaled(scale).getPixels();
+        PixelMat source = smooth(160, 120, rnd, 10);
+        paste(source, scaled, 30 + rnd.nextInt(60), 20 + rnd.nextInt(50), rnd, 0);
+        MatchBuffer found = JavaMatcher.find(source, target,
+                new FindOptions().setSimilarity(0.95).setScales(1.0, 1.25, 0.8));
+        String m = "scale " + scale + ": " + found;
+        assertBest(m, source, scaled, brute(source, scaled, 0.95, 1), found);
+        assertEquals(m, scale, found.getScale(0), 1e-9);
+      }
+    } finally {
+      ScaleCache.clear();
+      Settings.ScaleCacheFile = file;
+    }
+  }
+
+  @Test
+  public void topKAsFindAllWithLimit() {
+    for (int seed = 0; seed < 30; seed++) {
+      Random rnd = new Random(seed);
+      PixelMat source = smooth(160, 140, rnd, 12);
+      PixelMat target = new PixelMat(24, 24, PixelMat.RGBA,
+              source.copy(rnd.nextInt(136), rnd.nextInt(116), 24, 24));
+      int k = 1 + rnd.nextInt(8);
+      MatchBuffer top = JavaMatcher.find(source, target,
+              new FindOptions().setSimilarity(0.5).setTopK(k));
+      MatchBuffer all = JavaMatcher.find(source, target,
+              new FindOptions().setSimilarity(0.5).setFindAll(true).setLimit(k));
+      assertSameMatches("seed " + seed + " k " + k, all, top);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * searches through the default (native) matcher, skipped without the native library on
+ * java.library.path
+ */
+public class NativeMatcherTest {
+
+  private static Boolean loaded = null;
+
+  private static synchronized boolean loaded() {
+    if (loaded == null) {
+      try {
+        System.loadLibrary("VisionProxy");
+        loaded = true;
+      } catch (UnsatisfiedLinkError e) {
+        loaded = false;
+      }
+    }
+    return loaded;
+  }
+
+  private static BufferedImage noise(int w, int h, long seed) {
+    Random rnd = new Random(seed);
+    BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        img.setRGB(x, y, rnd.nextInt(1 << 24));
+      }
+    }
+    return img;
+  }
+
+  private static void paste(BufferedImage src, BufferedImage target, int x0, int y0) {
+    for (int y = 0; y < target.getHeight(); y++) {
+      for (int x = 0; x < target.getWidth(); x++) {
+        src.setRGB(x0 + x, y0 + y, target.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void regionWithDefaultMatcher() {
+    assumeTrue(loaded());
+    assertSame(Matchers.getNative(), Matchers.get());
+    BufferedImage src = noise(320, 240, 1), target = noise(20, 20, 2);
+    // the same target inside and outside the region
+    paste(src, target, 30, 40);
+    paste(src, target, 250, 180);
+    MatArena.Frame frame = MatArena.borrow(src);
+    Mat t = OpenCV.convertBufferedImageToMat(target);
+    FindInput q = new FindInput(frame.getMat(), t);
+    q.setSimilarity(0.9);
+    q.setFindAll(true);
+    q.setRegion(200, 150, 120, 90);
+    FindResults found = Vision.find(q);
+    assertEquals(1, found.size());
+    assertEquals(250, found.get(0).getX());
+    assertEquals(180, found.get(0).getY());
+    q.setResultsInFrame(false);
+    found = Vision.find(q);
+    assertEquals(1, found.size());
+    assertEquals(50, found.get(0).getX());
+    assertEquals(30, found.get(0).getY());
+    q.delete();
+    t.delete();
+    MatArena.release(frame);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void regionWithoutPixels() {
+    assumeTrue(loaded());
+    BufferedImage src = noise(320, 240, 3), target = noise(20, 20, 4);
+    Mat s = OpenCV.convertBufferedImageToMat(src);
+    s.setPixels(null);
+    FindInput q = new FindInput(s, OpenCV.convertBufferedImageToMat(target));
+    q.setRegion(200, 150, 120, 90);
+    Vision.find(q);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2013, Sikuli.org
+ * Released under the MIT License.
+ */
+package org.sikuli.basics.proxies;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * the conversions reading the rasters directly must give the same bytes as drawing the image
+ * into an RGBA image (drawImage over transparent black)
+ */
+public class OpenCVTest {
+
+  private static final int W = 67, H = 150;
+
+  private static BufferedImage random(int type, boolean translucent, long seed) {
+    Random rnd = new Random(seed);
+    BufferedImage img = new BufferedImage(W, H, type);
+    for (int y = 0; y < H; y++) {
+      for (int x = 0; x < W; x++) {
+        int a = translucent ? rnd.nextInt(256) : 255;
+        if (translucent && rnd.nextInt(4) == 0) {
+          a = rnd.nextBoolean() ? 0 : 255;
+        }
+        img.setRGB(x, y, (a << 24) | rnd.nextInt(1 << 24));
+      }
+    }
+    return img;
+  }
+
+  private static BufferedImage randomRGBA(boolean translucent, long seed) {
+    Random rnd = new Random(seed);
+    byte[] data = new byte[4 * W * H];
+    rnd.nextBytes(data);
+    if (!translucent) {
+      for (int i = 3; i < data.length; i += 4) {
+        data[i] = (byte) 255;
+      }
+    }
+    return OpenCV.createBufferedImage(W, H, data);
+  }
+
+  private static byte[] drawn(BufferedImage img) {
+    BufferedImage rgba = OpenCV.createBufferedImage(img.getWidth(), img.getHeight());
+    Graphics2D g = rgba.createGraphics();
+    g.drawImage(img, 0, 0, null);
+    g.dispose();
+    return ((DataBufferByte) rgba.getRaster().getDataBuffer()).getData();
+  }
+
+  private static void assertBytes(String what, byte[] expected, byte[] actual) {
+    assertEquals(what + " length", expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i] != actual[i]) {
+        fail(String.format("%s: byte %d (pixel %d) is %d, drawn %d", what, i, i / 4,
+                actual[i] & 0xff, expected[i] & 0xff));
+      }
+    }
+  }
+
+  private static void assertConverted(String what, BufferedImage img) {
+    byte[] expected = drawn(img);
+    assertBytes(what, expected, OpenCV.convertBufferedImageToByteArray(img));
+    byte[] reused = new byte[expected.length];
+    assertSame(what, reused, OpenCV.convertBufferedImageToByteArray(img, reused));
+    assertBytes(what, expected, reused);
+    byte[] gray = OpenCV.convertBufferedImageToGray(img);
+    for (int i = 0; i < gray.length; i++) {
+      int luma = PixelMat.luma(expected[4 * i] & 0xff, expected[4 * i + 1] & 0xff,
+              expected[4 * i + 2] & 0xff);
+      assertEquals(what + " gray " + i, luma, gray[i] & 0xff);
+    }
+  }
+
+  private static void assertConverted(String what, BufferedImage img, boolean subImages) {
+    assertConverted(what, img);
+    if (subImages) {
+      assertConverted(what + " sub", img.getSubimage(5, 7, W - 11, H - 20));
+      assertConverted(what + " row", img.getSubimage(3, H / 2, W - 3, 1));
+    }
+  }
+
+  @Test
+  public void intRGB() {
+    assertConverted("INT_RGB", random(BufferedImage.TYPE_INT_RGB, false, 1), true);
+  }
+
+  @Test
+  public void intARGB() {
+    assertConverted("INT_ARGB", random(BufferedImage.TYPE_INT_ARGB, false, 2), true);
+    assertConverted("INT_ARGB translucent", random(BufferedImage.TYPE_INT_ARGB, true, 3), true);
+  }
+
+  @Test
+  public void threeByteBGR() {
+    assertConverted("3BYTE_BGR", random(BufferedImage.TYPE_3BYTE_BGR, false, 4), true);
+  }
+
+  @Test
+  public void fourByteABGR() {
+    assertConverted("4BYTE_ABGR", random(BufferedImage.TYPE_4BYTE_ABGR, false, 5), true);
+    assertConverted("4BYTE_ABGR translucent", random(BufferedImage.TYPE_4BYTE_ABGR, true, 6), true);
+  }
+
+  @Test
+  public void rgba() {
+    BufferedImage img = randomRGBA(false, 7);
+    assertTrue(OpenCV.isRGBA(img));
+    assertConverted("RGBA", img, true);
+    assertFalse(OpenCV.isRGBA(img.getSubimage(1, 1, W - 2, H - 2)));
+    assertConverted("RGBA translucent", randomRGBA(true, 8), true);
+  }
+
+  @Test
+  public void drawnTypes() {
+    // not read directly: drawn as before
+    assertConverted("INT_BGR", random(BufferedImage.TYPE_INT_BGR, false, 9), true);
+    assertConverted("INT_ARGB_PRE", random(BufferedImage.TYPE_INT_ARGB_PRE, true, 10), false);
+  }
+
+  @Test
+  public void getRGBA() {
+    BufferedImage img = randomRGBA(true, 11);
+    assertSame(((DataBufferByte) img.getRaster().getDataBuffer()).getData(), OpenCV.getRGBA(img));
+    BufferedImage argb = random(BufferedImage.TYPE_INT_ARGB, true, 12);
+    assertBytes("INT_ARGB", drawn(argb), OpenCV.getRGBA(argb));
+  }
+}